@@ -0,0 +1,197 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** Blob storage for Gitlet, the tiny stupid ass version-control system.
+ *
+ *  A blob file starts with the magic bytes 'g' 'l' 'b' 0, followed by one
+ *  byte naming the codec its remaining bytes are stored with: STORED for
+ *  the contents as-is or DEFLATE for zlib-compressed contents.  Blob files
+ *  written by older versions hold the raw contents with no header.  The
+ *  name of a blob file is always the SHA-1 hash of the uncompressed
+ *  contents.  Compression is chosen by the gitlet.blobs.codec system
+ *  property, "deflate" (the default) or "stored".
+ *  @author Song Bai
+ */
+class BlobStore {
+
+    /** Magic bytes at the start of every blob file with a header. */
+    private static final byte[] MAGIC = { 'g', 'l', 'b', 0 };
+
+    /** Codec byte for uncompressed contents. */
+    static final int STORED = 0;
+
+    /** Codec byte for zlib-compressed contents. */
+    static final int DEFLATE = 1;
+
+    /** Size of the header, magic plus codec byte. */
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    /** Codec used for new blobs. */
+    private static final int CODEC =
+        "stored".equals(System.getProperty("gitlet.blobs.codec"))
+        ? STORED : DEFLATE;
+
+    /** Size of the buffers used when streaming contents. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Uncompressed size of the blobs written by this process. */
+    private static final AtomicLong BYTES_STORED = new AtomicLong();
+
+    /** Size on disk of the blobs written by this process. */
+    private static final AtomicLong BYTES_WRITTEN = new AtomicLong();
+
+    /** Size of the files added by this process whose blobs were already
+     *  stored. */
+    private static final AtomicLong BYTES_DEDUPLICATED = new AtomicLong();
+
+    /** Stores the contents of SOURCE, whose SHA-1 hash is BLOBSHA, as a
+     *  blob unless an identical blob is already stored.  SOURCE is
+     *  compressed and rehashed as a stream, so it is never held in memory
+     *  whole. */
+    static void add(File source, String blobSHA) throws IOException {
+        if (ObjectStore.contains(ObjectStore.BLOB, blobSHA)) {
+            BYTES_DEDUPLICATED.addAndGet(source.length());
+        } else {
+            write(blobSHA, source);
+        }
+    }
+
+    /** Returns the SHA-1 hash of the contents of SOURCE, which is the id of
+     *  the blob holding them. */
+    static String hash(File source) throws IOException {
+        MessageDigest digest = sha1Digest();
+        try (InputStream in = new DigestInputStream(
+                Files.newInputStream(source.toPath()), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** Stores the contents of SOURCE as the blob with BLOBSHA.  The blob is
+     *  written under a temporary name and renamed into place, so a blob
+     *  file that exists is always complete.  Throws GitletException if
+     *  SOURCE no longer hashes to BLOBSHA. */
+    private static void write(String blobSHA, File source)
+            throws IOException {
+        File blobFile = ObjectStore.newLooseFile(ObjectStore.BLOB, blobSHA);
+        File tempFile = File.createTempFile("blob", ".tmp",
+                blobFile.getParentFile());
+        MessageDigest digest = sha1Digest();
+        try {
+            try (InputStream in = new DigestInputStream(
+                    Files.newInputStream(source.toPath()), digest)) {
+                write(tempFile, in);
+            }
+            if (!blobSHA.equals(HexFormat.of().formatHex(digest.digest()))) {
+                throw Utils.error("File %s changed while being added.",
+                        source.getName());
+            }
+            BYTES_STORED.addAndGet(source.length());
+            BYTES_WRITTEN.addAndGet(tempFile.length());
+            Journal.storeObject(tempFile, blobFile);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /** Writes the bytes of IN to BLOBFILE with a header, compressing them
+     *  if new blobs are compressed. */
+    private static void write(File blobFile, InputStream in)
+            throws IOException {
+        OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(blobFile.toPath()), BUFFER_SIZE);
+        try {
+            out.write(MAGIC);
+            out.write(CODEC);
+            if (CODEC == DEFLATE) {
+                out = new DeflaterOutputStream(out);
+            }
+            in.transferTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Returns a new SHA-1 message digest. */
+    private static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns a one-line summary of blob writes. */
+    static String stats() {
+        return String.format("blobs: %d bytes stored as %d bytes written, "
+                + "%d bytes deduplicated", BYTES_STORED.get(),
+                BYTES_WRITTEN.get(), BYTES_DEDUPLICATED.get());
+    }
+
+    /** Returns CONTENTS as stored, uncompressed, in a blob file. */
+    static byte[] storedForm(byte[] contents) {
+        byte[] result = new byte[HEADER_LENGTH + contents.length];
+        System.arraycopy(MAGIC, 0, result, 0, MAGIC.length);
+        result[MAGIC.length] = STORED;
+        System.arraycopy(contents, 0, result, HEADER_LENGTH, contents.length);
+        return result;
+    }
+
+    /** Returns the uncompressed contents of the blob with BLOBSHA. */
+    static byte[] read(String blobSHA) {
+        try (InputStream in = open(blobSHA)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream of the uncompressed contents of the blob with
+     *  BLOBSHA, which may have been written with or without a header. */
+    static InputStream open(String blobSHA) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(
+                ObjectStore.open(ObjectStore.BLOB, blobSHA), BUFFER_SIZE);
+        in.mark(HEADER_LENGTH);
+        byte[] header = in.readNBytes(HEADER_LENGTH);
+        if (!hasMagic(header)) {
+            in.reset();
+            return in;
+        }
+        switch (header[MAGIC.length]) {
+        case STORED:
+            return in;
+        case DEFLATE:
+            return new InflaterInputStream(in);
+        default:
+            in.close();
+            throw Utils.error("Unknown blob codec %d.", header[MAGIC.length]);
+        }
+    }
+
+    /** Returns true if HEADER is a complete blob header. */
+    private static boolean hasMagic(byte[] header) {
+        if (header.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Working tree updates for checkout and reset in Gitlet, the tiny stupid
+ *  ass version-control system.
+ *
+ *  Moving from one commit to another only touches the working files that
+ *  differ between them: files the target does not track are deleted,
+ *  files whose blob changed are written, and a file with the same blob in
+ *  both is rewritten only if its working copy was modified.  The stat
+ *  index usually answers that last question without reading the file,
+ *  and learns the hash of every file written, so the next command need
+ *  not hash them either.
+ *
+ *  Files are read from the object store, decompressed and written on up
+ *  to gitlet.checkout.threads threads (default one per processor).  If
+ *  gitlet.checkout.atomic is true, every file is first written to a
+ *  temporary folder in .gitlet, and only once all of them have been
+ *  written are the old files deleted and the new ones renamed into place;
+ *  a checkout that fails before then leaves the working tree as it was.
+ *  @author Song Bai
+ */
+class Checkout {
+
+    /** .gitlet folder. */
+    static final File GITLET = new File(".gitlet");
+
+    /** Largest number of threads files are written on. */
+    static final int THREADS = Integer.getInteger("gitlet.checkout.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /** True if checkouts stage all files before changing any. */
+    static final boolean ATOMIC = Boolean.getBoolean("gitlet.checkout.atomic");
+
+    /** Number of working files written by this process. */
+    private static final AtomicLong WRITTEN = new AtomicLong();
+
+    /** Number of working files deleted by this process. */
+    private static final AtomicLong DELETED = new AtomicLong();
+
+    /** Number of working files found already up to date. */
+    private static final AtomicLong UNCHANGED = new AtomicLong();
+
+    /** Updates the working files tracked by FROM to those tracked by TO. */
+    static void apply(Commit from, Commit to) throws IOException {
+        Map<String, String> fromBlobs = from.blobs();
+        Map<String, String> toBlobs = to.blobs();
+
+        List<String> deletions = new ArrayList<>();
+        for (String fileName : fromBlobs.keySet()) {
+            if (!toBlobs.containsKey(fileName)) {
+                deletions.add(fileName);
+            }
+        }
+
+        TreeMap<String, String> writes = new TreeMap<>();
+        for (Map.Entry<String, String> entry : toBlobs.entrySet()) {
+            String fileName = entry.getKey();
+            String blobSHA = entry.getValue();
+            if (blobSHA.equals(fromBlobs.get(fileName))
+                    && isCurrent(fileName, blobSHA)) {
+                UNCHANGED.incrementAndGet();
+            } else {
+                writes.put(fileName, blobSHA);
+            }
+        }
+
+        if (ATOMIC) {
+            applyAtomically(deletions, writes);
+        } else {
+            delete(deletions);
+            write(writes, null);
+        }
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+            StatIndex.remember(entry.getKey(), entry.getValue());
+        }
+        WRITTEN.addAndGet(writes.size());
+    }
+
+    /** Writes WRITES, which maps working file names to blobs, to a
+     *  temporary folder, and then deletes the working files DELETIONS and
+     *  moves the written files into place. */
+    private static void applyAtomically(List<String> deletions,
+            TreeMap<String, String> writes) throws IOException {
+        File tempDir =
+            Files.createTempDirectory(GITLET.toPath(), "checkout").toFile();
+        try {
+            write(writes, tempDir);
+            delete(deletions);
+            int i = 0;
+            for (String fileName : writes.keySet()) {
+                File file = workingFile(fileName);
+                Files.move(new File(tempDir, String.valueOf(i)).toPath(),
+                        file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                WorkTreeMonitor.changed(fileName);
+                i += 1;
+            }
+        } finally {
+            File[] leftovers = tempDir.listFiles();
+            if (leftovers != null) {
+                for (File file : leftovers) {
+                    file.delete();
+                }
+            }
+            tempDir.delete();
+        }
+    }
+
+    /** Deletes the working files DELETIONS. */
+    private static void delete(List<String> deletions) {
+        for (String fileName : deletions) {
+            if (WorkingTree.delete(fileName)) {
+                DELETED.incrementAndGet();
+            }
+        }
+    }
+
+    /** Writes WRITES, which maps working file names to blobs, on up to
+     *  THREADS threads.  Each file is written in place, or if TEMPDIR is
+     *  not null, to TEMPDIR under its position in WRITES.  If any write
+     *  fails, the others are stopped before its exception is rethrown.
+     *  The working tree monitor is told of each working file written. */
+    private static void write(TreeMap<String, String> writes, File tempDir)
+            throws IOException {
+        List<File> targets = new ArrayList<>();
+        for (String fileName : writes.keySet()) {
+            targets.add(tempDir == null ? workingFile(fileName)
+                        : new File(tempDir, String.valueOf(targets.size())));
+        }
+        List<String> fileNames = new ArrayList<>(writes.keySet());
+        List<String> blobSHAs = new ArrayList<>(writes.values());
+
+        Parallel.run(targets.size(), THREADS, i -> {
+            copyBlob(blobSHAs.get(i), targets.get(i));
+            if (tempDir == null) {
+                WorkTreeMonitor.changed(fileNames.get(i));
+            }
+            return null;
+        });
+    }
+
+    /** Writes the contents of the blob with BLOBSHA to TARGET. */
+    private static void copyBlob(String blobSHA, File target)
+            throws IOException {
+        try (InputStream in = BlobStore.open(blobSHA)) {
+            Files.copy(in, target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Returns the working file with FILENAME, creating the directories it
+     *  is in if needed. */
+    private static File workingFile(String fileName) {
+        File result = new File(WorkingTree.CWD, fileName);
+        result.getParentFile().mkdirs();
+        return result;
+    }
+
+    /** Returns true if the working file with FILENAME holds the blob with
+     *  BLOBSHA. */
+    private static boolean isCurrent(String fileName, String blobSHA) {
+        return new File(fileName).isFile()
+            && StatIndex.sha(fileName).equals(blobSHA);
+    }
+
+    /** Returns a one-line summary of working files touched. */
+    static String stats() {
+        return String.format("checkout: %d files written, %d deleted, "
+                + "%d unchanged", WRITTEN.get(), DELETED.get(),
+                UNCHANGED.get());
+    }
+}
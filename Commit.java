@@ -5,7 +5,7 @@ import java.io.Serializable;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.TreeMap;
 
 /** Commit class for Gitlet, the tiny stupid ass version-control system.
  *  @author Song Bai
@@ -22,18 +22,15 @@ import java.util.Map;
 
 public class Commit implements Serializable {
 
+    /** Serialization id of commits written by older versions. */
+    private static final long serialVersionUID = 596637283454591600L;
+
     /** Current working directory. */
     static final File CWD = new File(System.getProperty("user.dir"));
 
     /** .gitlet folder. */
     static final File GITLET = new File(".gitlet");
 
-    /** Staging for addition folder. */
-    static final File STAGINGADDITION = Utils.join(GITLET, "stagingaddition");
-
-    /** Staging for removal folder. */
-    static final File STAGINGREMOVAL = Utils.join(GITLET, "stagingremoval");
-
     /** Commits folder. */
     static final File COMMITS = Utils.join(GITLET, "commits");
 
@@ -61,34 +58,39 @@ public class Commit implements Serializable {
     /** My timestamp. */
     private String _timestamp;
 
-    /** My tracked files and their blobs. */
+    /** My root tree, or null if I was written before trees were
+     *  recorded. */
+    private String _tree;
+
+    /** My tracked files and their blobs, read from my tree when first
+     *  needed unless I was written before trees were recorded. */
     private LinkedHashMap<String, String> _blobs;
 
+    /** My generation number: 1 for the initial commit, else one more than
+     *  the largest generation of my parents.  0 if I was written before
+     *  generations were recorded. */
+    private int _generation;
+
+    /** My SHA-1 id, once I have been saved or read back. */
+    private transient String _id;
+
     /** Creates a commit with MESSAGE. */
     public Commit(String message) {
         _message = message;
         _parent = Utils.readContentsAsString(HEAD);
 
-        File parentCommitFile = Utils.join(COMMITS, _parent);
-        Commit parentCommit = Utils.readObject(parentCommitFile, Commit.class);
-        _blobs = new LinkedHashMap<>();
-        for (Map.Entry<String, String> entry
-                : parentCommit.blobs().entrySet()) {
-            String fileName = entry.getKey();
-            String blobSHA = entry.getValue();
-            _blobs.put(fileName, blobSHA);
-        }
+        Commit parentCommit = CommitCache.get(_parent);
+        _generation = MergeBase.generation(parentCommit) + 1;
 
-        for (File file : STAGINGADDITION.listFiles()) {
-            String fileName = file.getName();
-            String blobSHA = Utils.readContentsAsString(file);
-            _blobs.put(fileName, blobSHA);
+        TreeMap<String, String> changes = new TreeMap<>();
+        if (parentCommit.tree() == null) {
+            changes.putAll(parentCommit.blobs());
         }
-
-        for (File file : STAGINGREMOVAL.listFiles()) {
-            String fileName = file.getName();
-            _blobs.remove(fileName);
+        changes.putAll(StagingArea.additions());
+        for (String fileName : StagingArea.removals()) {
+            changes.put(fileName, null);
         }
+        _tree = Tree.update(parentCommit.tree(), changes);
 
         ZonedDateTime dateTime = ZonedDateTime.now();
         DateTimeFormatter format = DateTimeFormatter.
@@ -101,7 +103,9 @@ public class Commit implements Serializable {
         _message = "initial commit";
         _parent = null;
         _timestamp = "Wed Dec 31 16:00:00 1969 -0800";
+        _tree = Tree.update(null, new TreeMap<>());
         _blobs = new LinkedHashMap<>();
+        _generation = 1;
     }
 
     /** Creates the commit for merge with 2nd parent PARENT2
@@ -109,13 +113,49 @@ public class Commit implements Serializable {
     public Commit(String parent2, String message) {
         this(message);
         _parent2 = parent2;
+        int parent2Generation =
+            MergeBase.generation(CommitCache.get(parent2));
+        _generation = Math.max(_generation, parent2Generation + 1);
+    }
+
+    /** Creates a commit with MESSAGE, PARENT, PARENT2, TIMESTAMP, root
+     *  tree TREE, BLOBS and GENERATION, as read back from disk.  Exactly
+     *  one of TREE and BLOBS is null. */
+    Commit(String message, String parent, String parent2, String timestamp,
+           String tree, LinkedHashMap<String, String> blobs,
+           int generation) {
+        _message = message;
+        _parent = parent;
+        _parent2 = parent2;
+        _timestamp = timestamp;
+        _tree = tree;
+        _blobs = blobs;
+        _generation = generation;
     }
 
     /** Returns my tracked files and their blobs. */
-    public LinkedHashMap<String, String> blobs() {
+    public synchronized LinkedHashMap<String, String> blobs() {
+        if (_blobs == null) {
+            _blobs = Tree.flatten(_tree);
+        }
         return _blobs;
     }
 
+    /** Returns the blob of my file with FILENAME, or null if I do not
+     *  track it, reading only the trees on its path. */
+    public synchronized String blob(String fileName) {
+        if (_blobs == null) {
+            return Tree.find(_tree, fileName);
+        }
+        return _blobs.get(fileName);
+    }
+
+    /** Returns my root tree, or null if I was written before trees were
+     *  recorded. */
+    public String tree() {
+        return _tree;
+    }
+
     /** Returns my message. */
     public String message() {
         return _message;
@@ -135,4 +175,19 @@ public class Commit implements Serializable {
     public String timestamp() {
         return _timestamp;
     }
+
+    /** Returns my generation number, or 0 if it was not recorded. */
+    public int generation() {
+        return _generation;
+    }
+
+    /** Returns my SHA-1 id, or null if I have not been saved yet. */
+    public String id() {
+        return _id;
+    }
+
+    /** Sets my SHA-1 id to ID. */
+    void setId(String id) {
+        _id = id;
+    }
 }
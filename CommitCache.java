@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** In-process cache of commits read from the repo, keyed by SHA-1 id and
+ *  evicted least recently used first.  Commits are immutable once saved,
+ *  so a cached commit never goes stale.
+ *
+ *  The cache holds at most gitlet.commitCache.entries commits (default
+ *  1024) whose files total at most gitlet.commitCache.bytes bytes
+ *  (default 64 MiB); both limits are read from system properties.
+ *  @author Song Bai
+ */
+class CommitCache {
+
+    /** Maximum number of cached commits. */
+    private static final int MAX_ENTRIES =
+        Integer.getInteger("gitlet.commitCache.entries", 1024);
+
+    /** Maximum total size of cached commit files, in bytes. */
+    private static final long MAX_BYTES =
+        Long.getLong("gitlet.commitCache.bytes", 64L << 20);
+
+    /** Cached commits in least to most recently used order. */
+    private static final LinkedHashMap<String, Entry> CACHE =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total size of the commit files in CACHE. */
+    private static long _bytes;
+
+    /** Number of lookups answered from the cache. */
+    private static long _hits;
+
+    /** Number of lookups that had to read a commit file. */
+    private static long _misses;
+
+    /** Returns the commit with COMMITSHA, reading it from disk only if
+     *  it is not already cached. */
+    static synchronized Commit get(String commitSHA) {
+        Entry entry = CACHE.get(commitSHA);
+        if (entry != null) {
+            _hits += 1;
+            return entry._commit;
+        }
+        _misses += 1;
+        byte[] stored = ObjectStore.read(ObjectStore.COMMIT, commitSHA);
+        Commit commit = CommitCodec.read(stored, commitSHA);
+        put(commit, stored.length);
+        return commit;
+    }
+
+    /** Caches COMMIT, which must have an id and whose file is SIZE bytes
+     *  long. */
+    static synchronized void put(Commit commit, long size) {
+        Entry old = CACHE.put(commit.id(), new Entry(commit, size));
+        if (old != null) {
+            _bytes -= old._size;
+        }
+        _bytes += size;
+        evict();
+    }
+
+    /** Empties the cache. */
+    static synchronized void clear() {
+        CACHE.clear();
+        _bytes = 0;
+    }
+
+    /** Returns a one-line summary of cache activity. */
+    static synchronized String stats() {
+        return String.format("commit cache: %d hits, %d misses, "
+                + "%d commits, %d bytes", _hits, _misses, CACHE.size(),
+                _bytes);
+    }
+
+    /** Drops least recently used commits until the cache is within its
+     *  limits, always keeping the most recently used one. */
+    private static void evict() {
+        Iterator<Map.Entry<String, Entry>> iter =
+            CACHE.entrySet().iterator();
+        while (CACHE.size() > 1
+                && (CACHE.size() > MAX_ENTRIES || _bytes > MAX_BYTES)) {
+            _bytes -= iter.next().getValue()._size;
+            iter.remove();
+        }
+    }
+
+    /** A cached commit and the size of its file. */
+    private static class Entry {
+
+        /** The commit. */
+        private final Commit _commit;
+
+        /** Size of its file in bytes. */
+        private final long _size;
+
+        /** An entry for COMMIT whose file is SIZE bytes. */
+        Entry(Commit commit, long size) {
+            _commit = commit;
+            _size = size;
+        }
+    }
+}
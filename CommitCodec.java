@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Binary encoding of commits for Gitlet, the tiny stupid ass
+ *  version-control system.
+ *
+ *  A commit file is laid out as follows:
+ *
+ *      'g' 'l' 'c' VERSION
+ *      message                 string
+ *      flags                   byte, bit 0: has parent, bit 1: has parent2
+ *      parent                  20 bytes, if present
+ *      parent2                 20 bytes, if present
+ *      generation              varint (since version 2)
+ *      timestamp               string
+ *      tree                    20 bytes (since version 3)
+ *
+ *  Before version 3 the tree is replaced by the files themselves:
+ *
+ *      count                   varint
+ *      count * (name string, blob 20 bytes)
+ *
+ *  where a string is a varint byte length followed by its UTF-8 bytes and
+ *  a varint is an unsigned LEB128 integer.  SHA-1 ids are stored as raw
+ *  bytes rather than as hexadecimal.  Version 1 commits carry no
+ *  generation number and read back with generation 0.  Commits read from
+ *  older versions without a tree are still encoded in version 2.  Files
+ *  that do not start with the magic bytes are commits written with Java
+ *  serialization by older versions of Gitlet.
+ *  @author Song Bai
+ */
+class CommitCodec {
+
+    /** Magic bytes at the start of every encoded commit. */
+    private static final byte[] MAGIC = { 'g', 'l', 'c' };
+
+    /** Current encoding version. */
+    static final int VERSION = 3;
+
+    /** Last encoding version that lists a commit's files itself. */
+    private static final int FLAT_VERSION = 2;
+
+    /** Flag bit for a commit with a parent. */
+    private static final int HAS_PARENT = 1;
+
+    /** Flag bit for a commit with a 2nd parent. */
+    private static final int HAS_PARENT2 = 2;
+
+    /** Length of a SHA-1 id in bytes. */
+    private static final int SHA_BYTES = Utils.UID_LENGTH / 2;
+
+    /** Returns the encoding of COMMIT. */
+    static byte[] encode(Commit commit) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(commit.tree() != null ? VERSION : FLAT_VERSION);
+        Varint.writeString(out, commit.message());
+
+        int flags = 0;
+        if (commit.parent() != null) {
+            flags |= HAS_PARENT;
+        }
+        if (commit.parent2() != null) {
+            flags |= HAS_PARENT2;
+        }
+        out.write(flags);
+        if (commit.parent() != null) {
+            writeSHA(out, commit.parent());
+        }
+        if (commit.parent2() != null) {
+            writeSHA(out, commit.parent2());
+        }
+        Varint.write(out, commit.generation());
+
+        Varint.writeString(out, commit.timestamp());
+        if (commit.tree() != null) {
+            writeSHA(out, commit.tree());
+            return out.toByteArray();
+        }
+        Varint.write(out, commit.blobs().size());
+        for (Map.Entry<String, String> entry : commit.blobs().entrySet()) {
+            Varint.writeString(out, entry.getKey());
+            writeSHA(out, entry.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns true if DATA starts with the encoded commit magic. */
+    static boolean isEncoded(byte[] data) {
+        if (data.length <= MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the commit encoded in DATA. */
+    static Commit decode(byte[] data) {
+        if (!isEncoded(data)) {
+            throw Utils.error("Not an encoded commit.");
+        }
+        Decoder in = new Decoder(data, MAGIC.length);
+        int version = in.readByte();
+        if (version < 1 || version > VERSION) {
+            throw Utils.error("Unknown commit version %d.", version);
+        }
+
+        String message = in.readString();
+        int flags = in.readByte();
+        String parent = (flags & HAS_PARENT) != 0 ? in.readSHA() : null;
+        String parent2 = (flags & HAS_PARENT2) != 0 ? in.readSHA() : null;
+        int generation = version >= 2 ? in.readVarint() : 0;
+        String timestamp = in.readString();
+        if (version > FLAT_VERSION) {
+            return new Commit(message, parent, parent2, timestamp,
+                    in.readSHA(), null, generation);
+        }
+
+        int count = in.readVarint();
+        LinkedHashMap<String, String> blobs = new LinkedHashMap<>();
+        for (int i = 0; i < count; i += 1) {
+            String fileName = in.readString();
+            blobs.put(fileName, in.readSHA());
+        }
+        return new Commit(message, parent, parent2, timestamp, null, blobs,
+                generation);
+    }
+
+    /** Returns the commit with id SHA whose stored bytes are DATA, which
+     *  may be either encoded or, for commits written by older versions,
+     *  serialized.  The id is trusted rather than recomputed. */
+    static Commit read(byte[] data, String sha) {
+        Commit commit;
+        if (isEncoded(data)) {
+            commit = decode(data);
+        } else {
+            commit = deserialize(data);
+        }
+        commit.setId(sha);
+        return commit;
+    }
+
+    /** Returns the commit serialized in DATA. */
+    private static Commit deserialize(byte[] data) {
+        try (ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (Commit) in.readObject();
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the hexadecimal SHA to OUT as raw bytes. */
+    private static void writeSHA(ByteArrayOutputStream out, String sha) {
+        if (sha.length() != Utils.UID_LENGTH) {
+            throw Utils.error("Malformed id %s.", sha);
+        }
+        for (int i = 0; i < sha.length(); i += 2) {
+            out.write(Integer.parseInt(sha.substring(i, i + 2), 16));
+        }
+    }
+
+    /** Sequential reader over an encoded commit. */
+    private static class Decoder {
+
+        /** Hexadecimal digits. */
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        /** My data. */
+        private final byte[] _data;
+
+        /** Position of my next unread byte, in a one-element array. */
+        private final int[] _pos;
+
+        /** A decoder reading DATA from position POS. */
+        Decoder(byte[] data, int pos) {
+            _data = data;
+            _pos = new int[] { pos };
+        }
+
+        /** Returns the next unsigned byte. */
+        int readByte() {
+            if (_pos[0] >= _data.length) {
+                throw Utils.error("Truncated commit.");
+            }
+            int b = _data[_pos[0]] & 0xff;
+            _pos[0] += 1;
+            return b;
+        }
+
+        /** Returns the next varint. */
+        int readVarint() {
+            return Varint.read(_data, _pos, "commit");
+        }
+
+        /** Returns the next length-prefixed string. */
+        String readString() {
+            return Varint.readString(_data, _pos, "commit");
+        }
+
+        /** Returns the next raw SHA-1 id as hexadecimal. */
+        String readSHA() {
+            if (SHA_BYTES > _data.length - _pos[0]) {
+                throw Utils.error("Truncated commit.");
+            }
+            char[] hex = new char[Utils.UID_LENGTH];
+            for (int i = 0; i < SHA_BYTES; i += 1) {
+                int b = _data[_pos[0] + i] & 0xff;
+                hex[2 * i] = HEX[b >>> 4];
+                hex[2 * i + 1] = HEX[b & 0xf];
+            }
+            _pos[0] += SHA_BYTES;
+            return new String(hex);
+        }
+    }
+}
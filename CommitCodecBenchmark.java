@@ -0,0 +1,68 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+
+/** A benchmark whose main program may be invoked as follows:
+ *      java gitlet.CommitCodecBenchmark [FILES [ITERATIONS]]
+ *  It writes a commit tracking FILES files (default 1000) both as a
+ *  serialized object and in the CommitCodec encoding, then reports the
+ *  size of each file and how many commits per second each format decodes
+ *  over ITERATIONS reads (default 2000).
+ *  @author Song Bai
+ */
+public class CommitCodecBenchmark {
+
+    /** Runs the benchmark with ARGS as described above. */
+    public static void main(String... args) throws IOException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        LinkedHashMap<String, String> blobs = new LinkedHashMap<>();
+        for (int i = 0; i < files; i += 1) {
+            blobs.put("file" + i + ".txt", Utils.sha1("contents " + i));
+        }
+        Commit commit = new Commit("benchmark commit",
+                Utils.sha1("parent"), null,
+                "Wed Dec 31 16:00:00 1969 -0800", null, blobs, 2);
+
+        File serializedFile = File.createTempFile("commit", ".ser");
+        File encodedFile = File.createTempFile("commit", ".glc");
+        serializedFile.deleteOnExit();
+        encodedFile.deleteOnExit();
+        Utils.writeObject(serializedFile, commit);
+        Utils.writeContents(encodedFile, CommitCodec.encode(commit));
+
+        System.out.printf("tracked files: %d%n", files);
+        System.out.printf("serialized size: %d bytes%n",
+                serializedFile.length());
+        System.out.printf("encoded size:    %d bytes%n",
+                encodedFile.length());
+
+        for (int round = 0; round < 2; round += 1) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i += 1) {
+                Utils.readObject(serializedFile, Commit.class);
+            }
+            long serializedNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i += 1) {
+                CommitCodec.read(Utils.readContents(encodedFile), null);
+            }
+            long encodedNanos = System.nanoTime() - start;
+
+            String label = round == 0 ? "warmup" : "measured";
+            System.out.printf("%s: Utils.readObject %.0f commits/s, "
+                    + "CommitCodec.read %.0f commits/s%n", label,
+                    perSecond(iterations, serializedNanos),
+                    perSecond(iterations, encodedNanos));
+        }
+    }
+
+    /** Returns the rate of COUNT operations in NANOS nanoseconds. */
+    private static double perSecond(int count, long nanos) {
+        return count * 1e9 / nanos;
+    }
+}
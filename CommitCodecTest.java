@@ -0,0 +1,140 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the binary commit encoding.
+ *  @author Song Bai
+ */
+public class CommitCodecTest {
+
+    /** A commit id. */
+    private static final String PARENT =
+        "0123456789abcdef0123456789abcdef01234567";
+
+    /** Another commit id. */
+    private static final String PARENT2 =
+        "fedcba9876543210fedcba9876543210fedcba98";
+
+    /** A tree or blob id. */
+    private static final String TREE =
+        "00ff00ff00ff00ff00ff00ff00ff00ff00ff00ff";
+
+    /** A commit timestamp. */
+    private static final String TIMESTAMP = "Wed Dec 31 16:00:00 1969 -0800";
+
+    /** A tree commit is encoded in the current version and reads back
+     *  the same. */
+    @Test
+    public void treeRoundTrip() {
+        Commit commit = new Commit("a message", PARENT, null, TIMESTAMP,
+                TREE, null, 7);
+        byte[] data = CommitCodec.encode(commit);
+        assertEquals(CommitCodec.VERSION, data[3]);
+
+        Commit result = CommitCodec.read(data, PARENT2);
+        assertEquals("a message", result.message());
+        assertEquals(PARENT, result.parent());
+        assertNull(result.parent2());
+        assertEquals(TIMESTAMP, result.timestamp());
+        assertEquals(TREE, result.tree());
+        assertEquals(7, result.generation());
+        assertEquals(PARENT2, result.id());
+    }
+
+    /** A merge commit keeps both parents, and a message that is not ASCII
+     *  survives. */
+    @Test
+    public void mergeRoundTrip() {
+        String message = "Merged \u00e9t\u00e9 into \u4e3b\u5e72 \ud83d\ude00";
+        Commit commit = new Commit(message, PARENT, PARENT2, TIMESTAMP,
+                TREE, null, 300);
+        Commit result = CommitCodec.decode(CommitCodec.encode(commit));
+        assertEquals(message, result.message());
+        assertEquals(PARENT, result.parent());
+        assertEquals(PARENT2, result.parent2());
+        assertEquals(300, result.generation());
+        assertEquals(TREE, result.tree());
+    }
+
+    /** A commit without a tree is encoded in the flat version 2 with its
+     *  files, in order. */
+    @Test
+    public void flatRoundTrip() {
+        LinkedHashMap<String, String> blobs = new LinkedHashMap<>();
+        blobs.put("b.txt", TREE);
+        blobs.put("a.txt", PARENT);
+        blobs.put("dir/\u00fcber.txt", PARENT2);
+        Commit commit = new Commit("flat", PARENT, PARENT2, TIMESTAMP,
+                null, blobs, 2);
+        byte[] data = CommitCodec.encode(commit);
+        assertEquals(2, data[3]);
+
+        Commit result = CommitCodec.decode(data);
+        assertEquals("flat", result.message());
+        assertEquals(PARENT, result.parent());
+        assertEquals(PARENT2, result.parent2());
+        assertNull(result.tree());
+        assertEquals(2, result.generation());
+        assertEquals(blobs, result.blobs());
+        assertArrayEquals(blobs.keySet().toArray(),
+                result.blobs().keySet().toArray());
+    }
+
+    /** The initial commit has no parents and an empty message. */
+    @Test
+    public void initialRoundTrip() {
+        Commit commit = new Commit("", null, null, TIMESTAMP,
+                TREE, null, 1);
+        Commit result = CommitCodec.decode(CommitCodec.encode(commit));
+        assertEquals("", result.message());
+        assertNull(result.parent());
+        assertNull(result.parent2());
+        assertEquals(1, result.generation());
+    }
+
+    /** Data without the magic bytes is not taken for an encoded commit. */
+    @Test
+    public void badMagic() {
+        byte[] data = CommitCodec.encode(new Commit("m", null, null,
+                TIMESTAMP, TREE, null, 1));
+        data[0] = 'x';
+        assertFalse(CommitCodec.isEncoded(data));
+        try {
+            CommitCodec.decode(data);
+            fail("decode accepted bad magic");
+        } catch (GitletException excp) {
+            /* Expected. */
+        }
+        try {
+            CommitCodec.read(data, PARENT);
+            fail("read accepted bad magic");
+        } catch (IllegalArgumentException excp) {
+            /* Expected. */
+        }
+    }
+
+    /** An unknown version and a truncated commit are rejected. */
+    @Test
+    public void badData() {
+        byte[] data = CommitCodec.encode(new Commit("m", PARENT, null,
+                TIMESTAMP, TREE, null, 1));
+        byte[] future = data.clone();
+        future[3] = CommitCodec.VERSION + 1;
+        try {
+            CommitCodec.decode(future);
+            fail("decode accepted an unknown version");
+        } catch (GitletException excp) {
+            /* Expected. */
+        }
+        byte[] truncated = java.util.Arrays.copyOf(data, data.length - 1);
+        try {
+            CommitCodec.decode(truncated);
+            fail("decode accepted a truncated commit");
+        } catch (GitletException excp) {
+            /* Expected. */
+        }
+    }
+}
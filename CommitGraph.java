@@ -0,0 +1,647 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/** Commit graph for Gitlet, the tiny stupid ass version-control system.
+ *
+ *  The commit graph holds what history walks need to know about each
+ *  commit, so that log and merge never have to open a commit file.  Each
+ *  commit is given a position, in the order it was added, and a parent is
+ *  always added before its children.  .gitlet/graph holds the magic bytes
+ *  'g' 'l' 'g' VERSION followed by one fixed-size record per position:
+ *
+ *      id                  20 bytes
+ *      parent              int, position of the parent, or NONE
+ *      parent2             int, position of the 2nd parent, or NONE
+ *      generation          int
+ *      data offset         long, into .gitlet/graph-data
+ *      data length         int
+ *
+ *  .gitlet/graph-data holds the magic bytes 'g' 'l' 'd' VERSION followed by
+ *  each commit's timestamp and message, as length-prefixed UTF-8 strings.
+ *  Both files are only ever appended to, data first, so a record always
+ *  has its data.  .gitlet/graph-lookup holds the magic bytes 'g' 'l' 'k'
+ *  VERSION, the number of records it covers and then the id and position
+ *  of each of those records, sorted by id for binary search; records added
+ *  since are found in a small unsorted tail, which is sorted into a new
+ *  lookup file once it holds more than gitlet.graph.tail (default 256)
+ *  records.  All three files are memory-mapped.
+ *
+ *  A new graph is made holding every stored commit the first time one is
+ *  needed, and commits are added to it on every commit, so it holds every
+ *  commit; one written by an older version since is added along with its
+ *  missing ancestors when it is first asked about.  Records at the end of
+ *  the graph that were only partly written, or whose data was, are cut
+ *  off when it is read.  The graph is only a cache: if it cannot be
+ *  updated on a commit, it is deleted and made anew when next needed, and
+ *  the message index, which refers to its positions, with it.
+ *  @author Song Bai
+ */
+class CommitGraph {
+
+    /** .gitlet folder. */
+    static final File GITLET = new File(".gitlet");
+
+    /** Commit graph records file. */
+    static final File GRAPH = Utils.join(GITLET, "graph");
+
+    /** Commit graph data file. */
+    static final File GRAPH_DATA = Utils.join(GITLET, "graph-data");
+
+    /** Commit graph lookup file. */
+    static final File GRAPH_LOOKUP = Utils.join(GITLET, "graph-lookup");
+
+    /** Position standing for no commit. */
+    static final int NONE = -1;
+
+    /** Magic bytes of the records file. */
+    private static final byte[] MAGIC = { 'g', 'l', 'g', 1 };
+
+    /** Magic bytes of the data file. */
+    private static final byte[] DATA_MAGIC = { 'g', 'l', 'd', 1 };
+
+    /** Magic bytes of the lookup file. */
+    private static final byte[] LOOKUP_MAGIC = { 'g', 'l', 'k', 1 };
+
+    /** Length of a commit id in bytes. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Size of one record. */
+    private static final int RECORD_SIZE = ID_LENGTH + 3 * Integer.BYTES
+        + Long.BYTES + Integer.BYTES;
+
+    /** Offset of the parent in a record. */
+    private static final int PARENT = ID_LENGTH;
+
+    /** Offset of the 2nd parent in a record. */
+    private static final int PARENT2 = PARENT + Integer.BYTES;
+
+    /** Offset of the generation in a record. */
+    private static final int GENERATION = PARENT2 + Integer.BYTES;
+
+    /** Offset of the data offset in a record. */
+    private static final int DATA_OFFSET = GENERATION + Integer.BYTES;
+
+    /** Offset of the data length in a record. */
+    private static final int DATA_LENGTH = DATA_OFFSET + Long.BYTES;
+
+    /** Size of one lookup entry. */
+    private static final int LOOKUP_ENTRY_SIZE = ID_LENGTH + Integer.BYTES;
+
+    /** Offset of the first lookup entry. */
+    private static final int LOOKUP_START = LOOKUP_MAGIC.length
+        + Integer.BYTES;
+
+    /** Largest number of records kept out of the lookup file. */
+    private static final int MAX_TAIL =
+        Integer.getInteger("gitlet.graph.tail", 256);
+
+    /** The records file, mapped, or null before it is loaded. */
+    private static MappedByteBuffer _records;
+
+    /** The data file, mapped. */
+    private static MappedByteBuffer _data;
+
+    /** The lookup file, mapped, or null if there is none. */
+    private static MappedByteBuffer _lookup;
+
+    /** Number of records. */
+    private static int _count;
+
+    /** Number of records covered by the lookup file. */
+    private static int _sorted;
+
+    /** Positions of the records not covered by the lookup file, by id. */
+    private static HashMap<String, Integer> _tail;
+
+    /** Returns the number of commits in the graph. */
+    static synchronized int count() {
+        load();
+        return _count;
+    }
+
+    /** Returns the position of the commit with COMMITSHA, adding it and
+     *  any missing ancestors to the graph first if needed. */
+    static synchronized int ensure(String commitSHA) {
+        load();
+        int known = position(commitSHA);
+        if (known != NONE) {
+            return known;
+        }
+        if (RepoLock.upgrade() || GRAPH.length() != _records.capacity()) {
+            reset();
+            return ensure(commitSHA);
+        }
+
+        List<Commit> pending = new ArrayList<>();
+        HashMap<String, Integer> added = new HashMap<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(commitSHA);
+        while (!stack.isEmpty()) {
+            String sha = stack.peek();
+            if (added.containsKey(sha) || position(sha) != NONE) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = CommitCache.get(sha);
+            boolean ready = true;
+            for (String parentSHA
+                     : new String[] { commit.parent(), commit.parent2() }) {
+                if (parentSHA != null && !added.containsKey(parentSHA)
+                        && position(parentSHA) == NONE) {
+                    stack.push(parentSHA);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                added.put(sha, _count + pending.size());
+                pending.add(commit);
+            }
+        }
+        append(pending, added);
+        return position(commitSHA);
+    }
+
+    /** Adds the commit with COMMITSHA to the graph as ensure does, except
+     *  that if the graph cannot be updated, it is deleted, to be made anew
+     *  when next needed, instead of failing the command. */
+    static synchronized void add(String commitSHA) {
+        try {
+            ensure(commitSHA);
+        } catch (RuntimeException excp) {
+            reset();
+            GRAPH.delete();
+            GRAPH_DATA.delete();
+            GRAPH_LOOKUP.delete();
+        }
+    }
+
+    /** Adds every stored commit to the graph. */
+    static synchronized void ensureAll() {
+        for (String commitSHA : ObjectStore.ids(ObjectStore.COMMIT)) {
+            ensure(commitSHA);
+        }
+    }
+
+    /** Returns an iterator over the position START and those of its first
+     *  parent, its first parent's first parent and so on, which reads each
+     *  record only when it is reached. */
+    static Iterator<Integer> firstParents(int start) {
+        return new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return _next != NONE;
+            }
+
+            @Override
+            public Integer next() {
+                if (_next == NONE) {
+                    throw new NoSuchElementException();
+                }
+                int result = _next;
+                _next = parent(result);
+                return result;
+            }
+
+            /** The position next returned. */
+            private int _next = start;
+        };
+    }
+
+    /** Returns an iterator over the positions of the commits with
+     *  COMMITSHAS, in order, which adds each to the graph only when it is
+     *  reached. */
+    static Iterator<Integer> positions(Iterable<String> commitSHAs) {
+        Iterator<String> ids = commitSHAs.iterator();
+        return new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return ids.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                return ensure(ids.next());
+            }
+        };
+    }
+
+    /** Returns the position of the commit with COMMITSHA, or NONE if it
+     *  is not in the graph. */
+    static synchronized int position(String commitSHA) {
+        load();
+        Integer inTail = _tail.get(commitSHA);
+        if (inTail != null) {
+            return inTail;
+        }
+        if (_lookup == null) {
+            return NONE;
+        }
+        byte[] key = Pack.toBytes(commitSHA);
+        int lo = 0;
+        int hi = _sorted - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int start = LOOKUP_START + mid * LOOKUP_ENTRY_SIZE;
+            int cmp = compareId(_lookup, start, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return _lookup.getInt(start + ID_LENGTH);
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the ids of up to LIMIT commits whose ids start with PREFIX,
+     *  in lexicographic order.  A full id not in the graph is added to it
+     *  if it names a stored commit. */
+    static synchronized List<String> withPrefix(String prefix, int limit) {
+        load();
+        List<String> result = new ArrayList<>();
+        if (prefix.isEmpty() || prefix.length() > Utils.UID_LENGTH
+                || !prefix.matches("[0-9a-f]+")) {
+            return result;
+        }
+        if (prefix.length() == Utils.UID_LENGTH) {
+            if (position(prefix) != NONE
+                    || ObjectStore.contains(ObjectStore.COMMIT, prefix)) {
+                ensure(prefix);
+                result.add(prefix);
+            }
+            return result;
+        }
+
+        if (_lookup != null) {
+            String padded = prefix + "0".repeat(Utils.UID_LENGTH
+                    - prefix.length());
+            byte[] key = Pack.toBytes(padded);
+            int lo = 0;
+            int hi = _sorted;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int start = LOOKUP_START + mid * LOOKUP_ENTRY_SIZE;
+                if (compareId(_lookup, start, key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            byte[] id = new byte[ID_LENGTH];
+            for (int i = lo; i < _sorted && result.size() < limit; i += 1) {
+                _lookup.get(LOOKUP_START + i * LOOKUP_ENTRY_SIZE, id);
+                String commitSHA = Pack.toHex(id);
+                if (!commitSHA.startsWith(prefix)) {
+                    break;
+                }
+                result.add(commitSHA);
+            }
+        }
+        for (String commitSHA : _tail.keySet()) {
+            if (commitSHA.startsWith(prefix)) {
+                result.add(commitSHA);
+            }
+        }
+        Collections.sort(result);
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    /** Returns the id of the commit at POSITION. */
+    static synchronized String id(int position) {
+        byte[] id = new byte[ID_LENGTH];
+        _records.get(recordStart(position), id);
+        return Pack.toHex(id);
+    }
+
+    /** Returns the position of the parent of the commit at POSITION, or
+     *  NONE. */
+    static synchronized int parent(int position) {
+        return _records.getInt(recordStart(position) + PARENT);
+    }
+
+    /** Returns the position of the 2nd parent of the commit at POSITION,
+     *  or NONE. */
+    static synchronized int parent2(int position) {
+        return _records.getInt(recordStart(position) + PARENT2);
+    }
+
+    /** Returns the generation of the commit at POSITION. */
+    static synchronized int generation(int position) {
+        return _records.getInt(recordStart(position) + GENERATION);
+    }
+
+    /** Returns the timestamp of the commit at POSITION. */
+    static synchronized String timestamp(int position) {
+        return dataStrings(position)[0];
+    }
+
+    /** Returns the message of the commit at POSITION. */
+    static synchronized String message(int position) {
+        return dataStrings(position)[1];
+    }
+
+    /** Forgets the graph files mapped, so that they are mapped again on
+     *  next use. */
+    static synchronized void reset() {
+        _records = null;
+        _data = null;
+        _lookup = null;
+        _tail = null;
+    }
+
+    /** Returns a one-line summary of the graph. */
+    static synchronized String stats() {
+        if (_records == null) {
+            return "commit graph: not loaded";
+        }
+        return String.format("commit graph: %d commits, %d in tail",
+                _count, _tail.size());
+    }
+
+    /** Returns the timestamp and message of the commit at POSITION. */
+    private static String[] dataStrings(int position) {
+        int start = recordStart(position);
+        long offset = _records.getLong(start + DATA_OFFSET);
+        int length = _records.getInt(start + DATA_LENGTH);
+        if (offset < DATA_MAGIC.length || length < 0
+                || offset + length > _data.capacity()) {
+            throw Utils.error("Bad commit graph.");
+        }
+        byte[] data = new byte[length];
+        _data.get((int) offset, data);
+        int[] pos = { 0 };
+        String timestamp = Varint.readString(data, pos, "commit graph");
+        String message = Varint.readString(data, pos, "commit graph");
+        return new String[] { timestamp, message };
+    }
+
+    /** Appends PENDING, whose positions are given by ADDED, to the graph.
+     *  The parents of each commit in PENDING are either already in the
+     *  graph or earlier in PENDING. */
+    private static void append(List<Commit> pending,
+                               HashMap<String, Integer> added) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteBuffer records = ByteBuffer.allocate(pending.size() * RECORD_SIZE);
+        long dataStart = GRAPH_DATA.length();
+        int[] generations = new int[pending.size()];
+
+        for (int i = 0; i < pending.size(); i += 1) {
+            Commit commit = pending.get(i);
+            int parent = resolve(commit.parent(), added);
+            int parent2 = resolve(commit.parent2(), added);
+            int generation = commit.generation();
+            if (generation <= 0) {
+                generation = 1 + Math.max(
+                        generationOf(parent, generations),
+                        generationOf(parent2, generations));
+            }
+            generations[i] = generation;
+
+            long offset = dataStart + data.size();
+            Varint.writeString(data, commit.timestamp());
+            Varint.writeString(data, commit.message());
+
+            records.put(Pack.toBytes(commit.id()));
+            records.putInt(parent);
+            records.putInt(parent2);
+            records.putInt(generation);
+            records.putLong(offset);
+            records.putInt((int) (dataStart + data.size() - offset));
+        }
+
+        try {
+            appendTo(GRAPH_DATA, ByteBuffer.wrap(data.toByteArray()));
+            records.flip();
+            appendTo(GRAPH, records);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (Map.Entry<String, Integer> entry : added.entrySet()) {
+            _tail.put(entry.getKey(), entry.getValue());
+        }
+        map();
+        if (_tail.size() > MAX_TAIL) {
+            writeLookup();
+        }
+    }
+
+    /** Returns the position of the commit with COMMITSHA, which is either
+     *  in the graph or in ADDED, or NONE if COMMITSHA is null. */
+    private static int resolve(String commitSHA,
+                               HashMap<String, Integer> added) {
+        if (commitSHA == null) {
+            return NONE;
+        }
+        Integer position = added.get(commitSHA);
+        return position != null ? position : position(commitSHA);
+    }
+
+    /** Returns the generation of the commit at POSITION, or 0 if it is
+     *  NONE, looking in GENERATIONS for positions not yet written. */
+    private static int generationOf(int position, int[] generations) {
+        if (position == NONE) {
+            return 0;
+        } else if (position >= _count) {
+            return generations[position - _count];
+        }
+        return generation(position);
+    }
+
+    /** Appends the remaining bytes of BUFFER to FILE. */
+    private static void appendTo(File file, ByteBuffer buffer)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /** Writes a new lookup file covering every record, which empties the
+     *  tail. */
+    private static void writeLookup() {
+        TreeMap<String, Integer> sorted = new TreeMap<>();
+        for (int position = 0; position < _count; position += 1) {
+            sorted.put(id(position), position);
+        }
+        ByteBuffer lookup = ByteBuffer.allocate(LOOKUP_START
+                + sorted.size() * LOOKUP_ENTRY_SIZE);
+        lookup.put(LOOKUP_MAGIC);
+        lookup.putInt(sorted.size());
+        for (Map.Entry<String, Integer> entry : sorted.entrySet()) {
+            lookup.put(Pack.toBytes(entry.getKey()));
+            lookup.putInt(entry.getValue());
+        }
+        try {
+            File tempFile = File.createTempFile("graph-lookup", ".tmp",
+                    GITLET);
+            try {
+                Utils.writeContents(tempFile, lookup.array());
+                Files.move(tempFile.toPath(), GRAPH_LOOKUP.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tempFile.delete();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        map();
+    }
+
+    /** Reads the graph if it has not been read yet.  If there is none, a
+     *  new one is made holding every stored commit. */
+    private static void load() {
+        if (_records != null) {
+            return;
+        }
+        if (!GRAPH.isFile() || !GRAPH_DATA.isFile()) {
+            RepoLock.upgrade();
+        }
+        if (GRAPH.isFile() && GRAPH_DATA.isFile()) {
+            map();
+            return;
+        }
+        Utils.writeContents(GRAPH_DATA, DATA_MAGIC);
+        Utils.writeContents(GRAPH, MAGIC);
+        GRAPH_LOOKUP.delete();
+        MessageIndex.INDEXED.delete();
+        map();
+        ensureAll();
+    }
+
+    /** Maps the graph files and works out the tail. */
+    private static void map() {
+        try {
+            _records = mapFile(GRAPH);
+            _data = mapFile(GRAPH_DATA);
+            _lookup = GRAPH_LOOKUP.isFile() ? mapFile(GRAPH_LOOKUP) : null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!hasMagic(_records, MAGIC) || !hasMagic(_data, DATA_MAGIC)) {
+            throw Utils.error("Bad commit graph.");
+        }
+        _count = (_records.capacity() - MAGIC.length) / RECORD_SIZE;
+        while (_count > 0 && !isValid(_count - 1)) {
+            _count -= 1;
+        }
+        if (_records.capacity() != recordStart(_count)) {
+            if (RepoLock.upgrade()) {
+                map();
+                return;
+            }
+            truncate(GRAPH, recordStart(_count));
+            try {
+                _records = mapFile(GRAPH);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        _sorted = 0;
+        if (_lookup != null && hasMagic(_lookup, LOOKUP_MAGIC)
+                && _lookup.capacity() >= LOOKUP_START) {
+            _sorted = _lookup.getInt(LOOKUP_MAGIC.length);
+            if (_sorted > _count || _lookup.capacity()
+                    < LOOKUP_START + (long) _sorted * LOOKUP_ENTRY_SIZE) {
+                _sorted = 0;
+            }
+        }
+        if (_sorted == 0) {
+            _lookup = null;
+        }
+        _tail = new HashMap<>();
+        for (int position = _sorted; position < _count; position += 1) {
+            _tail.put(id(position), position);
+        }
+    }
+
+    /** Returns true if the record at POSITION is whole: its parents come
+     *  before it and its data lies within the data file. */
+    private static boolean isValid(int position) {
+        int start = recordStart(position);
+        int parent = _records.getInt(start + PARENT);
+        int parent2 = _records.getInt(start + PARENT2);
+        long offset = _records.getLong(start + DATA_OFFSET);
+        int length = _records.getInt(start + DATA_LENGTH);
+        return parent >= NONE && parent < position
+            && parent2 >= NONE && parent2 < position
+            && offset >= DATA_MAGIC.length && length >= 0
+            && offset + length <= _data.capacity();
+    }
+
+    /** Cuts FILE down to SIZE bytes, dropping a partly written tail. */
+    private static void truncate(File file, long size) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns FILE mapped read-only. */
+    private static MappedByteBuffer mapFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+    }
+
+    /** Returns true if BUFFER starts with MAGIC. */
+    private static boolean hasMagic(ByteBuffer buffer, byte[] magic) {
+        if (buffer.capacity() < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i += 1) {
+            if (buffer.get(i) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the position of the record for POSITION in the records
+     *  file. */
+    private static int recordStart(int position) {
+        return MAGIC.length + position * RECORD_SIZE;
+    }
+
+    /** Compares the id in BUFFER at START with KEY. */
+    private static int compareId(ByteBuffer buffer, int start, byte[] key) {
+        for (int i = 0; i < ID_LENGTH; i += 1) {
+            int cmp = Integer.compare(buffer.get(start + i) & 0xff,
+                    key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+}
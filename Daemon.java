@@ -0,0 +1,368 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+
+/** Command daemon for Gitlet, the tiny stupid ass version-control system.
+ *
+ *  "gitlet daemon" keeps running in the repo, serving commands over the
+ *  Unix domain socket .gitlet/daemon.sock one at a time, so that commands
+ *  run in a warm JVM with the commit cache, packs, commit graph and stat
+ *  index already loaded.  Every other command first tries the socket and
+ *  runs in its own process if no daemon answers, or if gitlet.daemon is
+ *  false.  The daemon uses its own gitlet.* settings, not the client's.
+ *  "gitlet daemon --stop" stops it.  If gitlet.watch is true, the daemon
+ *  also watches the working tree (see WorkTreeMonitor).
+ *
+ *  A request is the magic bytes 'g' 'l' 'r' 1, the number of arguments
+ *  and each argument; a reply is the exit status, then what the command
+ *  wrote to System.out and to System.err, each preceded by its length.
+ *  Strings are UTF-8, preceded by their length.
+ *
+ *  The daemon watches .gitlet, and forgets the packs, commit graph or stat
+ *  index it holds when their files are changed, whether by itself or by
+ *  another process; as events may come late, it also checks before each
+ *  command that their files are as the last command left them.  The
+ *  staging area is read afresh by every command.  It stops if .gitlet is
+ *  deleted.
+ *  @author Song Bai
+ */
+class Daemon {
+
+    /** .gitlet folder. */
+    static final File GITLET = new File(".gitlet");
+
+    /** Packs folder. */
+    static final File PACKS = Utils.join(GITLET, "packs");
+
+    /** Daemon socket file. */
+    static final File SOCKET = Utils.join(GITLET, "daemon.sock");
+
+    /** True if commands are sent to a running daemon. */
+    static final boolean ENABLED =
+        !"false".equals(System.getProperty("gitlet.daemon"));
+
+    /** Magic bytes of a request. */
+    private static final byte[] MAGIC = { 'g', 'l', 'r', 1 };
+
+    /** Arguments asking the daemon to stop. */
+    private static final String[] STOP = { "daemon", "--stop" };
+
+    /** Exit status of a command that threw. */
+    private static final int FAILED = 1;
+
+    /** Sizes and times of the commit graph files after the last command. */
+    private static String _graphSeen;
+
+    /** Names of the pack files after the last command. */
+    private static String _packsSeen;
+
+    /** Size and time of the stat index file after the last command. */
+    private static String _statIndexSeen;
+
+    /** Runs the command ARGS in a running daemon, writes its output and
+     *  exits with its status if that is not 0.  Returns false, having done
+     *  nothing, if there is no daemon to run it. */
+    static boolean forward(String[] args) throws IOException {
+        if (!ENABLED || args.length == 0 || args[0].equals("init")
+                || args[0].equals("daemon")) {
+            return false;
+        }
+        int status = send(args);
+        if (status < 0) {
+            return false;
+        } else if (status > 0) {
+            System.exit(status);
+        }
+        return true;
+    }
+
+    /** Asks the running daemon to stop. */
+    static void stop() throws IOException {
+        if (send(STOP) < 0) {
+            System.out.println("No daemon is running.");
+        }
+    }
+
+    /** Serves commands until asked to stop or .gitlet is deleted. */
+    static void serve() throws IOException {
+        if (connect() != null) {
+            System.out.println("A daemon is already running.");
+            return;
+        }
+        Files.deleteIfExists(SOCKET.toPath());
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             WatchService watcher =
+                 FileSystems.getDefault().newWatchService()) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            watch(watcher, GITLET);
+            watch(watcher, PACKS);
+            WorkTreeMonitor.start();
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client, watcher);
+                }
+            }
+        } finally {
+            WorkTreeMonitor.stop();
+            Files.deleteIfExists(SOCKET.toPath());
+        }
+    }
+
+    /** Reads a request from CLIENT, runs it and replies, first taking in
+     *  what WATCHER saw change.  Returns false if it was a request to stop
+     *  or .gitlet is gone. */
+    private static boolean handle(SocketChannel client, WatchService watcher)
+            throws IOException {
+        DataInputStream in =
+            new DataInputStream(Channels.newInputStream(client));
+        DataOutputStream out =
+            new DataOutputStream(Channels.newOutputStream(client));
+        byte[] magic = in.readNBytes(MAGIC.length);
+        if (!Arrays.equals(magic, MAGIC)) {
+            return true;
+        }
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = readString(in);
+        }
+
+        if (Arrays.equals(args, STOP)) {
+            reply(out, 0, "Daemon stopped.\n".getBytes(StandardCharsets.UTF_8),
+                    new byte[0]);
+            return false;
+        }
+
+        if (!GITLET.isDirectory()) {
+            return false;
+        }
+        boolean locked = args.length > 0 && RepoLock.acquire(args[0]);
+        try {
+            if (!invalidate(watcher)) {
+                return false;
+            }
+            WorkTreeMonitor.update();
+            run(out, args);
+            rememberFiles();
+        } finally {
+            if (locked) {
+                RepoLock.release();
+            }
+        }
+        return true;
+    }
+
+    /** Runs the command ARGS and replies to OUT with its output. */
+    private static void run(DataOutputStream out, String[] args)
+            throws IOException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        PrintStream oldOut = System.out;
+        PrintStream oldErr = System.err;
+        int status = 0;
+        System.setOut(new PrintStream(stdout, true));
+        System.setErr(new PrintStream(stderr, true));
+        try {
+            Main.run(args);
+        } catch (Throwable excp) {
+            excp.printStackTrace();
+            status = FAILED;
+            StagingArea.reset();
+            StatIndex.reset();
+            Journal.reset();
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+        }
+        reply(out, status, stdout.toByteArray(), stderr.toByteArray());
+    }
+
+    /** Forgets whatever WATCHER saw change in .gitlet since the last
+     *  command, along with the staging area.  Since the events for a change
+     *  another process made just before releasing the repo lock may not
+     *  have come yet, the commit graph, packs and stat index are also
+     *  forgotten if their files are not as the last command left them.
+     *  Called holding the repo lock.  Returns false if .gitlet is gone. */
+    private static boolean invalidate(WatchService watcher) {
+        StagingArea.reset();
+        if (!fingerprint(CommitGraph.GRAPH, CommitGraph.GRAPH_DATA,
+                CommitGraph.GRAPH_LOOKUP).equals(_graphSeen)) {
+            CommitGraph.reset();
+        }
+        if (!packNames().equals(_packsSeen)) {
+            ObjectStore.reset();
+        }
+        if (!fingerprint(StatIndex.STATINDEX).equals(_statIndexSeen)) {
+            StatIndex.reset();
+        }
+        WatchKey key;
+        while ((key = watcher.poll()) != null) {
+            Path dir = (Path) key.watchable();
+            boolean inPacks = dir.endsWith(PACKS.getName());
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    ObjectStore.reset();
+                    CommitGraph.reset();
+                    StatIndex.reset();
+                    continue;
+                }
+                String name = event.context().toString();
+                if (inPacks || name.equals(PACKS.getName())) {
+                    ObjectStore.reset();
+                    watch(watcher, PACKS);
+                } else if (name.startsWith("graph")) {
+                    CommitGraph.reset();
+                } else if (name.equals(StatIndex.STATINDEX.getName())) {
+                    StatIndex.reset();
+                }
+            }
+            if (!key.reset() && !inPacks) {
+                return false;
+            }
+        }
+        return GITLET.isDirectory();
+    }
+
+    /** Notes how the last command left the files of the commit graph,
+     *  packs and stat index. */
+    private static void rememberFiles() {
+        _graphSeen = fingerprint(CommitGraph.GRAPH, CommitGraph.GRAPH_DATA,
+                CommitGraph.GRAPH_LOOKUP);
+        _packsSeen = packNames();
+        _statIndexSeen = fingerprint(StatIndex.STATINDEX);
+    }
+
+    /** Returns the size and modification time of each of FILES. */
+    private static String fingerprint(File... files) {
+        StringBuilder result = new StringBuilder();
+        for (File file : files) {
+            result.append(file.length()).append(' ')
+                .append(file.lastModified()).append(' ');
+        }
+        return result.toString();
+    }
+
+    /** Returns the names of the files in the packs folder. */
+    private static String packNames() {
+        String[] names = PACKS.list();
+        if (names == null) {
+            return "";
+        }
+        Arrays.sort(names);
+        return String.join(" ", names);
+    }
+
+    /** Has WATCHER watch the folder DIR, if it exists. */
+    private static void watch(WatchService watcher, File dir) {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        try {
+            dir.toPath().register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Sends ARGS to the running daemon, writes the output it replies with
+     *  and returns the exit status.  Returns -1 if no daemon answers. */
+    private static int send(String[] args) throws IOException {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return -1;
+        }
+        try (channel) {
+            DataOutputStream out =
+                new DataOutputStream(Channels.newOutputStream(channel));
+            try {
+                out.write(MAGIC);
+                out.writeInt(args.length);
+                for (String arg : args) {
+                    writeBytes(out, arg.getBytes(StandardCharsets.UTF_8));
+                }
+                out.flush();
+            } catch (IOException excp) {
+                return -1;
+            }
+            DataInputStream in =
+                new DataInputStream(Channels.newInputStream(channel));
+            int status = in.readInt();
+            System.out.write(readBytes(in));
+            System.out.flush();
+            System.err.write(readBytes(in));
+            System.err.flush();
+            return status;
+        }
+    }
+
+    /** Returns a channel connected to the running daemon, or null if
+     *  there is none. */
+    private static SocketChannel connect() {
+        if (!SOCKET.exists()) {
+            return null;
+        }
+        try {
+            return SocketChannel.open(
+                    UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Writes the reply STATUS, STDOUT and STDERR to OUT. */
+    private static void reply(DataOutputStream out, int status,
+                              byte[] stdout, byte[] stderr)
+            throws IOException {
+        out.writeInt(status);
+        writeBytes(out, stdout);
+        writeBytes(out, stderr);
+        out.flush();
+    }
+
+    /** Writes BYTES to OUT, preceded by their length. */
+    private static void writeBytes(DataOutputStream out, byte[] bytes)
+            throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Returns the bytes read from IN, preceded by their length. */
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        byte[] result = in.readNBytes(length);
+        if (result.length != length) {
+            throw Utils.error("Lost connection to the daemon.");
+        }
+        return result;
+    }
+
+    /** Returns the UTF-8 string read from IN, preceded by its length. */
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+}
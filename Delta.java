@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** Binary deltas for Gitlet, the tiny stupid ass version-control system.
+ *
+ *  A delta rebuilds a target byte array from a base byte array.  It is
+ *  the base length and the target length, both varints, followed by a
+ *  stream of instructions:
+ *
+ *      COPY offset length      copy length bytes of the base from offset
+ *      INSERT length bytes     insert the next length bytes of the delta
+ *
+ *  where offset and length are varints.  Deltas are found by indexing the
+ *  base in BLOCK-byte blocks and sliding a rolling hash over the target;
+ *  each hash hit is checked and then extended in both directions.
+ *  @author Song Bai
+ */
+class Delta {
+
+    /** Opcode of a copy instruction. */
+    private static final int COPY = 0;
+
+    /** Opcode of an insert instruction. */
+    private static final int INSERT = 1;
+
+    /** Size of the indexed base blocks, and the shortest copy. */
+    private static final int BLOCK = 16;
+
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 16777619;
+
+    /** PRIME raised to the power BLOCK - 1. */
+    private static final int TOP_POWER = power(PRIME, BLOCK - 1);
+
+    /** Returns a delta that rebuilds TARGET from BASE. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Varint.write(out, base.length);
+        Varint.write(out, target.length);
+
+        int[] table = index(base);
+        int mask = table.length - 1;
+        int pending = 0;
+        int pos = 0;
+        int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+
+        while (pos + BLOCK <= target.length) {
+            int candidate = table[mix(hash) & mask] - 1;
+            if (candidate >= 0
+                    && Arrays.equals(base, candidate, candidate + BLOCK,
+                                     target, pos, pos + BLOCK)) {
+                int start = candidate;
+                int end = candidate + BLOCK;
+                int targetStart = pos;
+                int targetEnd = pos + BLOCK;
+                while (start > 0 && targetStart > pending
+                        && base[start - 1] == target[targetStart - 1]) {
+                    start -= 1;
+                    targetStart -= 1;
+                }
+                while (end < base.length && targetEnd < target.length
+                        && base[end] == target[targetEnd]) {
+                    end += 1;
+                    targetEnd += 1;
+                }
+                writeInsert(out, target, pending, targetStart);
+                out.write(COPY);
+                Varint.write(out, start);
+                Varint.write(out, end - start);
+                pending = targetEnd;
+                pos = targetEnd;
+                if (pos + BLOCK <= target.length) {
+                    hash = hash(target, pos);
+                }
+            } else {
+                if (pos + BLOCK < target.length) {
+                    hash = (hash - target[pos] * TOP_POWER) * PRIME
+                        + target[pos + BLOCK];
+                }
+                pos += 1;
+            }
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the target rebuilt by applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = { 0 };
+        int baseLength = Varint.read(delta, pos, "delta");
+        int targetLength = Varint.read(delta, pos, "delta");
+        if (baseLength != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+
+        byte[] result = new byte[targetLength];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int offset = Varint.read(delta, pos, "delta");
+                int length = Varint.read(delta, pos, "delta");
+                System.arraycopy(base, offset, result, written, length);
+                written += length;
+            } else if (op == INSERT) {
+                int length = Varint.read(delta, pos, "delta");
+                System.arraycopy(delta, pos[0], result, written, length);
+                pos[0] += length;
+                written += length;
+            } else {
+                throw Utils.error("Malformed delta.");
+            }
+        }
+        if (written != targetLength) {
+            throw Utils.error("Malformed delta.");
+        }
+        return result;
+    }
+
+    /** Returns DATA compressed with deflate. */
+    static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 14];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Returns the bytes of DATA from OFFSET on, decompressed with
+     *  inflate. */
+    static byte[] inflate(byte[] data, int offset) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 14];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw Utils.error("Truncated delta.");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Returns a hash table mapping the hash of each whole BLOCK-byte block
+     *  of BASE to one plus its offset.  Its size is a power of two. */
+    private static int[] index(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(1, blocks) * 2 - 1) << 1;
+        int[] table = new int[size];
+        for (int offset = (blocks - 1) * BLOCK; offset >= 0;
+             offset -= BLOCK) {
+            table[mix(hash(base, offset)) & (size - 1)] = offset + 1;
+        }
+        return table;
+    }
+
+    /** Returns the rolling hash of the BLOCK bytes of DATA at OFFSET. */
+    private static int hash(byte[] data, int offset) {
+        int result = 0;
+        for (int i = offset; i < offset + BLOCK; i += 1) {
+            result = result * PRIME + data[i];
+        }
+        return result;
+    }
+
+    /** Returns HASH with its bits spread for use as a table index. */
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 15) ^ (hash >>> 7);
+    }
+
+    /** Returns X raised to the power N, with int overflow. */
+    private static int power(int x, int n) {
+        int result = 1;
+        for (int i = 0; i < n; i += 1) {
+            result *= x;
+        }
+        return result;
+    }
+
+    /** Writes an instruction to OUT inserting the bytes of TARGET from
+     *  START up to END, if there are any. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target,
+                                    int start, int end) {
+        if (end > start) {
+            out.write(INSERT);
+            Varint.write(out, end - start);
+            out.write(target, start, end - start);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of binary deltas.
+ *  @author Song Bai
+ */
+public class DeltaTest {
+
+    /** Returns LENGTH bytes of noise from SEED. */
+    private static byte[] noise(int length, long seed) {
+        byte[] result = new byte[length];
+        new Random(seed).nextBytes(result);
+        return result;
+    }
+
+    /** Returns A followed by B. */
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /** Returns the delta from BASE to TARGET after checking that it
+     *  rebuilds TARGET, alone and once deflated. */
+    private static byte[] roundTrip(byte[] base, byte[] target) {
+        byte[] delta = Delta.create(base, target);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        byte[] inflated = Delta.inflate(Delta.deflate(delta), 0);
+        assertArrayEquals(target, Delta.apply(base, inflated));
+        return delta;
+    }
+
+    /** Empty bases and targets. */
+    @Test
+    public void empty() {
+        byte[] data = noise(100, 1);
+        roundTrip(new byte[0], new byte[0]);
+        roundTrip(new byte[0], data);
+        roundTrip(data, new byte[0]);
+    }
+
+    /** An identical target is one copy of the whole base. */
+    @Test
+    public void identical() {
+        byte[] data = noise(1000, 2);
+        byte[] delta = roundTrip(data, data.clone());
+        assertTrue(delta.length < 16);
+    }
+
+    /** A target sharing nothing with its base is inserted whole. */
+    @Test
+    public void different() {
+        byte[] base = noise(1000, 3);
+        byte[] target = noise(1000, 4);
+        byte[] delta = roundTrip(base, target);
+        assertTrue(delta.length > target.length);
+    }
+
+    /** Bytes inserted before the base are inserted, and the rest is
+     *  copied. */
+    @Test
+    public void insertAtStart() {
+        byte[] base = noise(1000, 5);
+        byte[] prefix = "new first line\n".getBytes(StandardCharsets.UTF_8);
+        byte[] delta = roundTrip(base, concat(prefix, base));
+        assertTrue(delta.length < prefix.length + 16);
+    }
+
+    /** Bytes appended to the base are inserted after a copy. */
+    @Test
+    public void insertAtEnd() {
+        byte[] base = noise(1000, 6);
+        byte[] suffix = "new last line\n".getBytes(StandardCharsets.UTF_8);
+        byte[] delta = roundTrip(base, concat(base, suffix));
+        assertTrue(delta.length < suffix.length + 16);
+    }
+
+    /** Lengths and offsets past 127 take more than one varint byte. */
+    @Test
+    public void longVarints() {
+        for (int length : new int[] { 127, 128, 129, 300, 16384, 70000 }) {
+            byte[] base = noise(length, length);
+            byte[] target = concat(Arrays.copyOfRange(base, length / 2,
+                    length), noise(length, -length));
+            roundTrip(base, target);
+            roundTrip(target, base);
+        }
+    }
+
+    /** A delta is refused against a base of the wrong length. */
+    @Test
+    public void wrongBase() {
+        byte[] base = noise(200, 7);
+        byte[] delta = Delta.create(base, noise(200, 8));
+        try {
+            Delta.apply(Arrays.copyOf(base, 199), delta);
+            fail("apply accepted the wrong base");
+        } catch (GitletException excp) {
+            /* Expected. */
+        }
+    }
+}
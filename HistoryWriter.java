@@ -0,0 +1,155 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+
+/** Writes commit history for log and global-log in Gitlet, the tiny stupid
+ *  ass version-control system.
+ *
+ *  Commits are given as positions in the commit graph, which has
+ *  everything printed, and are written as they come through a large
+ *  buffer instead of one flushed line at a time.  At most MAXCOUNT
+ *  commits are written, and only those made between SINCE and UNTIL; the
+ *  iterator of commits is not advanced past the last one written, so
+ *  writing the last ten commits of a long history reads ten records.
+ *  @author Song Bai
+ */
+class HistoryWriter implements Closeable {
+
+    /** Format of commit timestamps. */
+    static final DateTimeFormatter TIMESTAMP_FORMAT =
+        DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z");
+
+    /** Size of the output buffer in chars. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Most commits to write, or negative for all. */
+    private final int _maxCount;
+
+    /** Earliest time of commits to write, or null. */
+    private final Instant _since;
+
+    /** Latest time of commits to write, or null. */
+    private final Instant _until;
+
+    /** True if each commit takes one line. */
+    private final boolean _oneline;
+
+    /** Buffered output. */
+    private final PrintWriter _out;
+
+    /** Number of commits written so far. */
+    private int _written;
+
+    /** A writer of at most MAXCOUNT commits, or all of them if MAXCOUNT is
+     *  negative, made no earlier than SINCE and no later than UNTIL, either
+     *  of which may be null.  Commits take one line each if ONELINE. */
+    HistoryWriter(int maxCount, Instant since, Instant until,
+                  boolean oneline) {
+        _maxCount = maxCount;
+        _since = since;
+        _until = until;
+        _oneline = oneline;
+        _out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), BUFFER_SIZE), false);
+    }
+
+    /** Writes the commits at the graph positions POSITIONS, in order, until
+     *  MAXCOUNT have been written.  If NEWESTFIRST, POSITIONS are known to
+     *  be ordered newest first, so the first commit older than SINCE ends
+     *  the walk. */
+    void writeAll(Iterator<Integer> positions, boolean newestFirst) {
+        while (!isDone() && positions.hasNext()) {
+            int position = positions.next();
+            if (_since == null && _until == null) {
+                write(position);
+                continue;
+            }
+            Instant time = parseTimestamp(CommitGraph.timestamp(position));
+            if (_since != null && time.isBefore(_since)) {
+                if (newestFirst) {
+                    return;
+                }
+            } else if (_until == null || !time.isAfter(_until)) {
+                write(position);
+            }
+        }
+    }
+
+    /** Returns true once MAXCOUNT commits have been written. */
+    boolean isDone() {
+        return _maxCount >= 0 && _written >= _maxCount;
+    }
+
+    /** Writes the commit at POSITION. */
+    private void write(int position) {
+        String commitSHA = CommitGraph.id(position);
+        String message = CommitGraph.message(position);
+        _written += 1;
+        if (_oneline) {
+            int newline = message.indexOf('\n');
+            _out.println(commitSHA.substring(0, 7) + " "
+                    + (newline < 0 ? message : message.substring(0, newline)));
+            return;
+        }
+        _out.println("===");
+        _out.println("commit " + commitSHA);
+        int parent2 = CommitGraph.parent2(position);
+        if (parent2 != CommitGraph.NONE) {
+            String parent1Abbreviated =
+                CommitGraph.id(CommitGraph.parent(position)).substring(0, 7);
+            String parent2Abbreviated =
+                CommitGraph.id(parent2).substring(0, 7);
+            _out.println("Merge: "
+                    + parent1Abbreviated + " " + parent2Abbreviated);
+        }
+        _out.println("Date: " + CommitGraph.timestamp(position));
+        _out.println(message);
+        _out.println();
+    }
+
+    /** Flushes what has been written, leaving System.out open. */
+    @Override
+    public void close() {
+        _out.flush();
+    }
+
+    /** Returns the time of commit TIMESTAMP. */
+    static Instant parseTimestamp(String timestamp) {
+        return ZonedDateTime.parse(timestamp, TIMESTAMP_FORMAT).toInstant();
+    }
+
+    /** Returns the time named by DATE, which is a date like 2024-01-31, a
+     *  date and time like 2024-01-31T13:45:00 or 2024-01-31 13:45, in the
+     *  local time zone, or a commit timestamp.  Returns null if DATE is
+     *  none of those. */
+    static Instant parseDate(String date) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            return LocalDate.parse(date).atStartOfDay(zone).toInstant();
+        } catch (DateTimeParseException excp) {
+            /* Not a plain date. */
+        }
+        try {
+            return LocalDateTime.parse(date.replace(' ', 'T'))
+                .atZone(zone).toInstant();
+        } catch (DateTimeParseException excp) {
+            /* Not a date and time. */
+        }
+        try {
+            return parseTimestamp(date);
+        } catch (DateTimeParseException excp) {
+            return null;
+        }
+    }
+}
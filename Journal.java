@@ -0,0 +1,527 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/** Write-ahead journal for Gitlet, the tiny stupid ass version-control
+ *  system.
+ *
+ *  Each command's changes to the branches, HEAD, the current branch and
+ *  the staging area (the refs) form one transaction, along with every
+ *  object it stored.  Objects are written as soon as they are made, under
+ *  a temporary name renamed into place; refs are only noted, and are read
+ *  back from the note by the rest of the command.  At the end of the
+ *  command the transaction is appended to .gitlet/journal and made
+ *  durable with a single fsync, and only then are the refs written.  So a
+ *  ref never reaches the disk ahead of an object it points to, and the
+ *  refs a command changes change together.
+ *
+ *  Objects of up to gitlet.journal.inline bytes (default 64 KiB) are kept
+ *  in the journal itself, so they need no fsync of their own, until the
+ *  transaction holds gitlet.journal.transaction bytes of them (default 4
+ *  MiB); other objects are synced before they are renamed into place, and
+ *  their folders before the transaction is written.
+ *
+ *  The journal starts with the magic bytes 'g' 'l' 'j' VERSION and the
+ *  id of the boot it was written in.  Each transaction is its length, the
+ *  CRC-32 of its body and its body: the number of entries, then for each
+ *  its kind, its path and, for objects and refs, its contents.  Once its
+ *  refs are written, an APPLIED marker follows it.  On startup, a
+ *  transaction without a marker has its refs written again, and if the
+ *  machine has rebooted since the journal was written, or it cannot tell
+ *  because the boot id is not known, every transaction in it is written
+ *  again, since their files may not have reached the disk.  A torn
+ *  transaction at the end is dropped.  Once the journal grows past
+ *  gitlet.journal.checkpoint bytes (default 1 MiB), every file it names
+ *  is synced and it is emptied.  Temporary files left by object writes
+ *  that were cut short are deleted on replay and at each checkpoint;
+ *  until then, readers skip them.
+ *  @author Song Bai
+ */
+class Journal {
+
+    /** .gitlet folder. */
+    static final File GITLET = new File(".gitlet");
+
+    /** Journal file. */
+    static final File JOURNAL = Utils.join(GITLET, "journal");
+
+    /** Largest object kept in the journal. */
+    static final int INLINE_LIMIT =
+        Integer.getInteger("gitlet.journal.inline", 1 << 16);
+
+    /** Most object bytes kept in the journal by one transaction. */
+    static final long TRANSACTION_INLINE_LIMIT =
+        Long.getLong("gitlet.journal.transaction", 1 << 22);
+
+    /** Journal size past which it is checkpointed. */
+    static final long CHECKPOINT_SIZE =
+        Long.getLong("gitlet.journal.checkpoint", 1 << 20);
+
+    /** Magic bytes of the journal. */
+    private static final byte[] MAGIC = { 'g', 'l', 'j', 1 };
+
+    /** Marker following a transaction whose refs have been written. */
+    private static final byte[] APPLIED =
+        { -1, -1, -1, -1, 'a', 'p', 'l', 'd' };
+
+    /** File giving the id of this boot. */
+    private static final File BOOT_ID =
+        new File("/proc/sys/kernel/random/boot_id");
+
+    /** Entry kind of an object kept in the journal. */
+    private static final byte OBJECT = 1;
+
+    /** Entry kind of an object synced on its own. */
+    private static final byte SYNCED = 2;
+
+    /** Entry kind of a ref write. */
+    private static final byte REF = 3;
+
+    /** Entry kind of a ref deletion. */
+    private static final byte DELETE = 4;
+
+    /** Objects stored by this command and not yet journaled, by file, with
+     *  their contents, or null for those synced on their own. */
+    private static final LinkedHashMap<File, byte[]> OBJECTS =
+        new LinkedHashMap<>();
+
+    /** Ref changes made by this command and not yet journaled, by file,
+     *  with their new contents, or null for deletions. */
+    private static final LinkedHashMap<File, byte[]> REFS =
+        new LinkedHashMap<>();
+
+    /** Object bytes kept for the transaction of this command so far. */
+    private static long _inlineBytes;
+
+    /** Number of transactions committed by this process. */
+    private static long _transactions;
+
+    /** Number of fsyncs made by this process. */
+    private static long _syncs;
+
+    /** Number of checkpoints made by this process. */
+    private static long _checkpoints;
+
+    /** Writes CONTENTS as the object file OBJECTFILE. */
+    static void writeObject(File objectFile, byte[] contents)
+            throws IOException {
+        File tempFile = File.createTempFile("object", ".tmp",
+                objectFile.getParentFile());
+        try {
+            Files.write(tempFile.toPath(), contents);
+            storeObject(tempFile, objectFile,
+                    reserveInline(contents.length) ? contents : null);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /** Moves TEMPFILE, a finished object file, into place as OBJECTFILE. */
+    static void storeObject(File tempFile, File objectFile)
+            throws IOException {
+        byte[] contents = reserveInline(tempFile.length())
+            ? Files.readAllBytes(tempFile.toPath()) : null;
+        storeObject(tempFile, objectFile, contents);
+    }
+
+    /** Moves TEMPFILE, holding CONTENTS, into place as OBJECTFILE.  If
+     *  CONTENTS is null, TEMPFILE is synced first instead of being kept in
+     *  the journal. */
+    private static void storeObject(File tempFile, File objectFile,
+                                    byte[] contents) throws IOException {
+        if (contents == null) {
+            sync(tempFile);
+        }
+        Files.move(tempFile.toPath(), objectFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        synchronized (Journal.class) {
+            OBJECTS.put(objectFile, contents);
+        }
+    }
+
+    /** Returns true, counting LENGTH bytes against this transaction, if an
+     *  object of LENGTH bytes is to be kept in the journal: if it is no
+     *  longer than INLINE_LIMIT and fits in what is left of
+     *  TRANSACTION_INLINE_LIMIT. */
+    private static synchronized boolean reserveInline(long length) {
+        if (length > INLINE_LIMIT
+                || _inlineBytes + length > TRANSACTION_INLINE_LIMIT) {
+            return false;
+        }
+        _inlineBytes += length;
+        return true;
+    }
+
+    /** Notes that the ref file FILE is to hold CONTENTS. */
+    static void writeRef(File file, String contents) {
+        writeRef(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Notes that the ref file FILE is to hold CONTENTS. */
+    static synchronized void writeRef(File file, byte[] contents) {
+        REFS.put(file, contents);
+    }
+
+    /** Notes that the ref file FILE is to be deleted. */
+    static synchronized void deleteRef(File file) {
+        REFS.put(file, null);
+    }
+
+    /** Returns the contents of the ref file FILE as a string, as changed
+     *  by this command so far. */
+    static synchronized String readRef(File file) {
+        if (REFS.containsKey(file)) {
+            byte[] contents = REFS.get(file);
+            if (contents == null) {
+                throw new IllegalArgumentException("must be a normal file");
+            }
+            return new String(contents, StandardCharsets.UTF_8);
+        }
+        return Utils.readContentsAsString(file);
+    }
+
+    /** Makes everything noted by this command durable and writes its
+     *  refs. */
+    static synchronized void commit() throws IOException {
+        if (OBJECTS.isEmpty() && REFS.isEmpty()) {
+            return;
+        }
+        LinkedHashSet<File> syncedDirs = new LinkedHashSet<>();
+        for (Map.Entry<File, byte[]> entry : OBJECTS.entrySet()) {
+            if (entry.getValue() == null) {
+                syncedDirs.add(entry.getKey().getParentFile());
+            }
+        }
+        for (File dir : syncedDirs) {
+            sync(dir);
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(OBJECTS.size() + REFS.size());
+        for (Map.Entry<File, byte[]> entry : OBJECTS.entrySet()) {
+            writeEntry(out, entry.getValue() == null ? SYNCED : OBJECT,
+                    entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<File, byte[]> entry : REFS.entrySet()) {
+            writeEntry(out, entry.getValue() == null ? DELETE : REF,
+                    entry.getKey(), entry.getValue());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+        ByteBuffer record = ByteBuffer.allocate(2 * Integer.BYTES
+                + body.size());
+        record.putInt(body.size());
+        record.putInt((int) crc.getValue());
+        record.put(body.toByteArray());
+        record.flip();
+
+        try (FileChannel channel = openJournal()) {
+            channel.write(record);
+            channel.force(false);
+            _syncs += 1;
+        }
+        _transactions += 1;
+
+        for (Map.Entry<File, byte[]> entry : REFS.entrySet()) {
+            applyRef(entry.getKey(), entry.getValue());
+        }
+        OBJECTS.clear();
+        REFS.clear();
+        _inlineBytes = 0;
+        try (FileChannel channel = openJournal()) {
+            channel.write(ByteBuffer.wrap(APPLIED));
+        }
+        if (JOURNAL.length() > CHECKPOINT_SIZE) {
+            checkpoint();
+        }
+    }
+
+    /** Forgets everything noted by this command. */
+    static synchronized void reset() {
+        OBJECTS.clear();
+        REFS.clear();
+        _inlineBytes = 0;
+    }
+
+    /** Finishes whatever the journal shows was cut short: writes the refs
+     *  of transactions not marked applied, and if the machine has rebooted
+     *  since the journal was written, every file in it, after which the
+     *  journal is checkpointed.  Either way, the temporary files of object
+     *  writes that were cut short are deleted. */
+    static synchronized void replay() throws IOException {
+        if (!JOURNAL.isFile() || isSettled()) {
+            return;
+        }
+        if (RepoLock.upgrade() && isSettled()) {
+            return;
+        }
+        byte[] journal = Files.readAllBytes(JOURNAL.toPath());
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(journal));
+        boolean rebooted = true;
+        if (journal.length >= MAGIC.length && Arrays.equals(
+                Arrays.copyOf(journal, MAGIC.length), MAGIC)) {
+            in.skipBytes(MAGIC.length);
+            String bootId = in.readUTF();
+            rebooted = bootId.isEmpty() || !bootId.equals(bootId());
+        }
+
+        int end = journal.length - in.available();
+        boolean applied = true;
+        List<Object[]> entries;
+        while ((entries = readTransaction(in)) != null) {
+            applied = skipApplied(in);
+            for (Object[] entry : entries) {
+                byte kind = (Byte) entry[0];
+                File file = (File) entry[1];
+                byte[] contents = (byte[]) entry[2];
+                if (kind == OBJECT && (rebooted || !file.isFile())) {
+                    file.getParentFile().mkdirs();
+                    applyRef(file, contents);
+                } else if ((kind == REF || kind == DELETE)
+                        && (rebooted || !applied)) {
+                    applyRef(file, contents);
+                }
+            }
+            end = journal.length - in.available();
+        }
+
+        if (rebooted) {
+            checkpoint();
+            return;
+        }
+        ObjectStore.deleteTempFiles();
+        try (FileChannel channel = FileChannel.open(JOURNAL.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(end);
+            if (!applied) {
+                channel.position(end);
+                channel.write(ByteBuffer.wrap(APPLIED));
+            }
+        }
+    }
+
+    /** Syncs every file the journal names and empties it, deleting the
+     *  temporary files of object writes that were cut short. */
+    static synchronized void checkpoint() throws IOException {
+        LinkedHashSet<File> files = new LinkedHashSet<>();
+        if (JOURNAL.isFile()) {
+            byte[] journal = Files.readAllBytes(JOURNAL.toPath());
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(journal));
+            if (journal.length >= MAGIC.length && Arrays.equals(
+                    Arrays.copyOf(journal, MAGIC.length), MAGIC)) {
+                in.skipBytes(MAGIC.length);
+                in.readUTF();
+                List<Object[]> entries;
+                while ((entries = readTransaction(in)) != null) {
+                    skipApplied(in);
+                    for (Object[] entry : entries) {
+                        files.add((File) entry[1]);
+                    }
+                }
+            }
+        }
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (File file : files) {
+            if (file.isFile()) {
+                sync(file);
+            }
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            if (dir.isDirectory()) {
+                sync(dir);
+            }
+        }
+        ObjectStore.deleteTempFiles();
+        writeHeader();
+        _checkpoints += 1;
+    }
+
+    /** Forces the contents of FILE, or the entries of the folder FILE, to
+     *  the disk. */
+    static void sync(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        synchronized (Journal.class) {
+            _syncs += 1;
+        }
+    }
+
+    /** Returns a one-line summary of journal activity. */
+    static synchronized String stats() {
+        return String.format("journal: %d transactions, %d fsyncs, "
+                + "%d checkpoints", _transactions, _syncs, _checkpoints);
+    }
+
+    /** Returns true if the journal was written in this boot and ends with
+     *  an APPLIED marker or holds no transactions. */
+    private static boolean isSettled() throws IOException {
+        try (FileChannel channel = FileChannel.open(JOURNAL.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            DataInputStream in = new DataInputStream(
+                    Channels.newInputStream(channel));
+            byte[] magic = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC)
+                    || !in.readUTF().equals(bootId())) {
+                return false;
+            }
+            long headerSize = channel.position();
+            if (size == headerSize) {
+                return true;
+            }
+            if (size - headerSize < APPLIED.length) {
+                return false;
+            }
+            ByteBuffer tail = ByteBuffer.allocate(APPLIED.length);
+            channel.read(tail, size - APPLIED.length);
+            return Arrays.equals(tail.array(), APPLIED);
+        } catch (EOFException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the entries of the transaction read from IN, each its kind,
+     *  file and contents, or null if there is no whole transaction
+     *  there. */
+    private static List<Object[]> readTransaction(DataInputStream in)
+            throws IOException {
+        if (in.available() < 2 * Integer.BYTES) {
+            return null;
+        }
+        int length = in.readInt();
+        int checksum = in.readInt();
+        if (length < 0 || length > in.available()) {
+            return null;
+        }
+        byte[] body = in.readNBytes(length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        DataInputStream entries = new DataInputStream(
+                new ByteArrayInputStream(body));
+        int count = entries.readInt();
+        List<Object[]> result = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            byte kind = entries.readByte();
+            File file = new File(entries.readUTF());
+            byte[] contents = null;
+            if (kind == OBJECT || kind == REF) {
+                contents = entries.readNBytes(entries.readInt());
+            }
+            result.add(new Object[] { kind, file, contents });
+        }
+        return result;
+    }
+
+    /** Reads the APPLIED marker from IN if it comes next, returning true,
+     *  else returns false, having read nothing. */
+    private static boolean skipApplied(DataInputStream in)
+            throws IOException {
+        in.mark(APPLIED.length);
+        if (Arrays.equals(in.readNBytes(APPLIED.length), APPLIED)) {
+            return true;
+        }
+        in.reset();
+        return false;
+    }
+
+    /** Writes the entry of KIND for FILE with CONTENTS, which is null for
+     *  kinds without contents, to OUT. */
+    private static void writeEntry(DataOutputStream out, byte kind,
+                                   File file, byte[] contents)
+            throws IOException {
+        out.writeByte(kind);
+        out.writeUTF(file.getPath());
+        if (contents != null) {
+            out.writeInt(contents.length);
+            out.write(contents);
+        }
+    }
+
+    /** Makes FILE hold CONTENTS, or deletes it if CONTENTS is null.  The
+     *  file is written under a temporary name and renamed into place. */
+    private static void applyRef(File file, byte[] contents)
+            throws IOException {
+        if (contents == null) {
+            file.delete();
+            return;
+        }
+        File tempFile = File.createTempFile("ref", ".tmp",
+                file.getAbsoluteFile().getParentFile());
+        try {
+            Files.write(tempFile.toPath(), contents);
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /** Returns a channel appending to the journal, creating it first if
+     *  it does not exist. */
+    private static FileChannel openJournal() throws IOException {
+        if (!JOURNAL.isFile()) {
+            writeHeader();
+        }
+        return FileChannel.open(JOURNAL.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /** Replaces the journal with an empty one and syncs it. */
+    private static void writeHeader() throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.write(MAGIC);
+        out.writeUTF(bootId());
+        File tempFile = File.createTempFile("journal", ".tmp", GITLET);
+        try {
+            Files.write(tempFile.toPath(), header.toByteArray());
+            sync(tempFile);
+            Files.move(tempFile.toPath(), JOURNAL.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tempFile.delete();
+        }
+        sync(GITLET);
+    }
+
+    /** Returns the id of this boot, or "" if it is not known. */
+    private static String bootId() {
+        try {
+            return Utils.readContentsAsString(BOOT_ID).trim();
+        } catch (IllegalArgumentException excp) {
+            return "";
+        }
+    }
+}
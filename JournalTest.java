@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/** Tests of the write-ahead journal.  They run in a scratch .gitlet folder
+ *  in the current directory, and are skipped if one exists already.
+ *  @author Song Bai
+ */
+public class JournalTest {
+
+    /** A ref file written by the tests. */
+    private static final File REF = Utils.join(Journal.GITLET, "ref");
+
+    /** An object file written by the tests. */
+    private static final File OBJECT = Utils.join(Journal.GITLET, "object");
+
+    /** Marker following an applied transaction. */
+    private static final byte[] APPLIED =
+        { -1, -1, -1, -1, 'a', 'p', 'l', 'd' };
+
+    /** True if this test made the scratch .gitlet folder. */
+    private boolean _created;
+
+    /** Makes the scratch .gitlet folder. */
+    @Before
+    public void setUp() {
+        assumeFalse(Journal.GITLET.exists());
+        _created = Journal.GITLET.mkdir();
+        Journal.reset();
+    }
+
+    /** Deletes the scratch .gitlet folder. */
+    @After
+    public void tearDown() {
+        Journal.reset();
+        ObjectStore.reset();
+        if (_created) {
+            delete(Journal.GITLET);
+        }
+    }
+
+    /** Refs are read back from the journal until the command commits, and
+     *  then written along with an APPLIED marker. */
+    @Test
+    public void roundTrip() throws IOException {
+        byte[] contents = "object".getBytes(StandardCharsets.UTF_8);
+        Journal.writeObject(OBJECT, contents);
+        Journal.writeRef(REF, "one");
+        assertEquals("one", Journal.readRef(REF));
+        assertFalse(REF.exists());
+
+        Journal.commit();
+        assertEquals("one", Utils.readContentsAsString(REF));
+        assertArrayEquals(contents, Utils.readContents(OBJECT));
+        assertArrayEquals(APPLIED, tail(APPLIED.length));
+
+        long length = Journal.JOURNAL.length();
+        Journal.replay();
+        assertEquals(length, Journal.JOURNAL.length());
+        assertEquals("one", Utils.readContentsAsString(REF));
+    }
+
+    /** A deleted ref is gone once the command commits. */
+    @Test
+    public void deleteRef() throws IOException {
+        Journal.writeRef(REF, "one");
+        Journal.commit();
+        Journal.deleteRef(REF);
+        Journal.commit();
+        assertFalse(REF.exists());
+    }
+
+    /** A transaction written but not applied has its refs written on
+     *  replay, and a torn transaction after it is dropped. */
+    @Test
+    public void tornTail() throws IOException {
+        Journal.writeRef(REF, "one");
+        Journal.commit();
+        Journal.writeRef(REF, "two");
+        Journal.commit();
+        long applied = Journal.JOURNAL.length();
+
+        Utils.writeContents(REF, "one");
+        truncate(applied - APPLIED.length);
+        append(new byte[] { 0, 0, 1, 0, 't', 'o', 'r', 'n' });
+
+        Journal.replay();
+        assertEquals("two", Utils.readContentsAsString(REF));
+        assertEquals(applied, Journal.JOURNAL.length());
+        assertArrayEquals(APPLIED, tail(APPLIED.length));
+    }
+
+    /** A transaction with a bad checksum is dropped along with everything
+     *  after it. */
+    @Test
+    public void badChecksum() throws IOException {
+        Journal.writeRef(REF, "one");
+        Journal.commit();
+        long first = Journal.JOURNAL.length();
+        Journal.writeRef(REF, "two");
+        Journal.commit();
+
+        Utils.writeContents(REF, "one");
+        long length = Journal.JOURNAL.length();
+        truncate(length - APPLIED.length);
+        byte[] journal = Utils.readContents(Journal.JOURNAL);
+        journal[journal.length - 1] ^= 1;
+        Utils.writeContents(Journal.JOURNAL, journal);
+
+        Journal.replay();
+        assertEquals("one", Utils.readContentsAsString(REF));
+        assertEquals(first, Journal.JOURNAL.length());
+    }
+
+    /** After a reboot, objects kept in the journal are written again and
+     *  the journal is emptied. */
+    @Test
+    public void rebootRewritesObjects() throws IOException {
+        Journal.checkpoint();
+        long header = Journal.JOURNAL.length();
+        byte[] contents = "object".getBytes(StandardCharsets.UTF_8);
+        Journal.writeObject(OBJECT, contents);
+        Journal.writeRef(REF, "one");
+        Journal.commit();
+
+        OBJECT.delete();
+        Utils.writeContents(REF, "stale");
+        setBootId("another boot");
+
+        Journal.replay();
+        assertArrayEquals(contents, Utils.readContents(OBJECT));
+        assertEquals("one", Utils.readContentsAsString(REF));
+        assertEquals(header, Journal.JOURNAL.length());
+    }
+
+    /** A checkpoint empties the journal, after which replay does
+     *  nothing. */
+    @Test
+    public void checkpoint() throws IOException {
+        Journal.checkpoint();
+        long header = Journal.JOURNAL.length();
+        Journal.writeRef(REF, "one");
+        Journal.commit();
+        assertTrue(Journal.JOURNAL.length() > header);
+
+        Journal.checkpoint();
+        assertEquals(header, Journal.JOURNAL.length());
+        Utils.writeContents(REF, "later");
+        Journal.replay();
+        assertEquals("later", Utils.readContentsAsString(REF));
+    }
+
+    /** Temporary files left in shard folders by object writes that were
+     *  cut short are skipped by readers and deleted on replay. */
+    @Test
+    public void tempFiles() throws IOException {
+        String id = "ab" + "0".repeat(Utils.UID_LENGTH - 2);
+        File blob = ObjectStore.newLooseFile(ObjectStore.BLOB, id);
+        Utils.writeContents(blob, "blob");
+        File blobTemp = new File(blob.getParentFile(), "blob123.tmp");
+        Utils.writeContents(blobTemp, "torn");
+        File objectTemp = new File(ObjectStore.newLooseFile(
+                ObjectStore.COMMIT, id).getParentFile(), "object456.tmp");
+        Utils.writeContents(objectTemp, "torn");
+        assertEquals(List.of(id),
+                ObjectStore.ids(ObjectStore.BLOB));
+        assertTrue(ObjectStore.ids(ObjectStore.COMMIT).isEmpty());
+
+        Journal.writeRef(REF, "one");
+        Journal.commit();
+        truncate(Journal.JOURNAL.length() - APPLIED.length);
+        Journal.replay();
+        assertFalse(blobTemp.exists());
+        assertFalse(objectTemp.exists());
+        assertTrue(blob.isFile());
+        assertArrayEquals(APPLIED, tail(APPLIED.length));
+
+        Utils.writeContents(blobTemp, "torn");
+        Journal.checkpoint();
+        assertFalse(blobTemp.exists());
+        assertTrue(blob.isFile());
+    }
+
+    /** Deletes FILE and, if it is a folder, everything in it. */
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Returns the last LENGTH bytes of the journal. */
+    private static byte[] tail(int length) {
+        byte[] journal = Utils.readContents(Journal.JOURNAL);
+        return Arrays.copyOfRange(journal, journal.length - length,
+                journal.length);
+    }
+
+    /** Cuts the journal down to LENGTH bytes. */
+    private static void truncate(long length) throws IOException {
+        try (RandomAccessFile file =
+                 new RandomAccessFile(Journal.JOURNAL, "rw")) {
+            file.setLength(length);
+        }
+    }
+
+    /** Appends BYTES to the journal. */
+    private static void append(byte[] bytes) throws IOException {
+        try (RandomAccessFile file =
+                 new RandomAccessFile(Journal.JOURNAL, "rw")) {
+            file.seek(file.length());
+            file.write(bytes);
+        }
+    }
+
+    /** Rewrites the journal header to name the boot BOOTID. */
+    private static void setBootId(String bootId) throws IOException {
+        byte[] journal = Utils.readContents(Journal.JOURNAL);
+        int magic = 4;
+        int oldLength = 2 + (((journal[magic] & 0xff) << 8)
+                             | (journal[magic + 1] & 0xff));
+        try (DataOutputStream out = new DataOutputStream(
+                Files.newOutputStream(Journal.JOURNAL.toPath()))) {
+            out.write(journal, 0, magic);
+            out.writeUTF(bootId);
+            out.write(journal, magic + oldLength,
+                    journal.length - magic - oldLength);
+        }
+    }
+}
@@ -2,7 +2,14 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
 
 /** Driver class for Gitlet, the tiny stupid ass version-control system.
  *  @author Song Bai
@@ -16,12 +23,6 @@ public class Main {
     /** .gitlet folder. */
     static final File GITLET = new File(".gitlet");
 
-    /** Staging for addition folder. */
-    static final File STAGINGADDITION = Utils.join(GITLET, "stagingaddition");
-
-    /** Staging for removal folder. */
-    static final File STAGINGREMOVAL = Utils.join(GITLET, "stagingremoval");
-
     /** Commits folder. */
     static final File COMMITS = Utils.join(GITLET, "commits");
 
@@ -46,6 +47,13 @@ public class Main {
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String... args) throws IOException {
+        if (!Daemon.forward(args)) {
+            run(args);
+        }
+    }
+
+    /** Runs the command ARGS in this process. */
+    static void run(String... args) throws IOException {
         _args = args;
 
         if (_args.length == 0) {
@@ -59,6 +67,20 @@ public class Main {
             return;
         }
 
+        boolean locked = RepoLock.acquire(_args[0]);
+        try {
+            execute();
+        } finally {
+            if (locked) {
+                RepoLock.release();
+            }
+        }
+    }
+
+    /** Runs the command in _ARGS in a repo, holding the lock it needs. */
+    private static void execute() throws IOException {
+        Journal.replay();
+
         switch (_args[0]) {
         case "add":
             add();
@@ -96,55 +118,96 @@ public class Main {
         case "merge":
             merge();
             break;
+        case "pack":
+            pack();
+            break;
+        case "migrate-objects":
+            migrateObjects();
+            break;
+        case "daemon":
+            daemon();
+            break;
         default:
             System.out.println("No command with that name exists.");
         }
 
+        StagingArea.save();
+        Journal.commit();
+        StatIndex.save();
+
+        if (Boolean.getBoolean("gitlet.stats")) {
+            printStats();
+        }
+    }
+
+    /** Prints performance counters for this command on System.err. */
+    private static void printStats() {
+        System.err.println(CommitCache.stats());
+        System.err.println(BlobStore.stats());
+        System.err.println(StatIndex.stats());
+        System.err.println(Checkout.stats());
+        System.err.println(CommitGraph.stats());
+        System.err.println(WorkTreeMonitor.stats());
+        System.err.println(Journal.stats());
+        System.err.println(RepoLock.stats());
     }
 
     /** Returns the commit with COMMITSHA. */
     private static Commit getCommit(String commitSHA) {
-        File commitFile = Utils.join(COMMITS, commitSHA);
-        Commit commit = Utils.readObject(commitFile, Commit.class);
-        return commit;
+        return CommitCache.get(commitSHA);
     }
 
     /** Returns head commit. */
     private static Commit getHeadCommit() {
-        String headCommitSHA = Utils.readContentsAsString(HEAD);
+        String headCommitSHA = Journal.readRef(HEAD);
         return getCommit(headCommitSHA);
     }
 
     /** Returns the name of the current branch. */
     private static String getCurrentBranch() {
-        String currentBranch = Utils.readContentsAsString(CURRENTBRANCH);
+        String currentBranch = Journal.readRef(CURRENTBRANCH);
         return currentBranch;
     }
 
     /** Returns the head commit of BRANCH. */
     private static Commit getBranchHeadCommit(String branch) {
         File branchFile = Utils.join(BRANCHES, branch);
-        String branchHeadCommitSHA = Utils.readContentsAsString(branchFile);
+        String branchHeadCommitSHA = Journal.readRef(branchFile);
         Commit branchHeadCommit = getCommit(branchHeadCommitSHA);
         return branchHeadCommit;
     }
 
     /** Returns SHA of the current working file with name FILENAME. */
     private static String getCWDFileSHA(String fileName) {
-        File cwdFile = new File(fileName);
-        byte[] cwdFileContents = Utils.readContents(cwdFile);
-        String cwdFileSHA = Utils.sha1(cwdFileContents);
-        return cwdFileSHA;
+        return StatIndex.sha(fileName);
+    }
+
+    /** Returns the full SHA of the commit whose SHA starts with
+     *  COMMITSHAPOSSIBLYABBREVIATED, or null after saying why if there is
+     *  no such commit or more than one. */
+    private static String resolveCommitSHA(
+            String commitSHAPossiblyAbbreviated) {
+        List<String> commitList = CommitGraph.withPrefix(
+                commitSHAPossiblyAbbreviated.toLowerCase(Locale.ROOT), 2);
+        if (commitList.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        } else if (commitList.size() > 1) {
+            System.out.println("Ambiguous commit id.");
+            return null;
+        }
+        return commitList.get(0);
     }
 
     /** Returns true if checking out to COMMIT would overwrite files
      *  in the current working directory, else false. */
     private static boolean wouldOverwriteCWDFiles(Commit commit) {
-        List<String> cwdFileList = Utils.plainFilenamesIn(CWD);
+        List<String> cwdFileList = WorkingTree.files();
+        Commit headCommit = getHeadCommit();
 
         for (String cwdFileName : cwdFileList) {
             String cwdFileSHA = getCWDFileSHA(cwdFileName);
-            if (!getHeadCommit().blobs().containsKey(cwdFileName)
+            if (!headCommit.blobs().containsKey(cwdFileName)
                     && commit.blobs().containsKey(cwdFileName)
                     && !commit.blobs().get(cwdFileName).equals(cwdFileSHA)) {
                 return true;
@@ -163,23 +226,58 @@ public class Main {
                     + " already exists in the current directory.");
         } else {
             REPO.init();
+            Journal.commit();
         }
     }
 
-    /** Add helper. */
+    /** Add helper.  Each operand may be a file, a directory, whose files
+     *  are all added, or a glob matching the paths of working files, such
+     *  as "*.txt" or "src/**.java".  Nothing is added if any named file is
+     *  missing. */
     private static void add() throws IOException {
-        if (_args.length != 2) {
+        if (_args.length < 2) {
             System.out.println("Incorrect operands.");
-        } else {
-            String fileName = _args[1];
-            File fileToAdd = new File(fileName);
-
-            if (!fileToAdd.exists()) {
+            return;
+        }
+        TreeSet<String> fileNames = new TreeSet<>();
+        for (int i = 1; i < _args.length; i += 1) {
+            String operand = _args[i];
+            String path = WorkingTree.normalize(operand);
+            if (isGlob(operand)) {
+                PathMatcher matcher = FileSystems.getDefault()
+                        .getPathMatcher("glob:" + operand);
+                for (String fileName : WorkingTree.files()) {
+                    if (matcher.matches(Paths.get(fileName))) {
+                        fileNames.add(fileName);
+                    }
+                }
+            } else if (path != null && new File(operand).isDirectory()) {
+                fileNames.addAll(WorkingTree.files(path));
+            } else if (path == null || !new File(operand).isFile()) {
                 System.out.println("File does not exist.");
+                return;
             } else {
-                REPO.add(fileName, fileToAdd);
+                fileNames.add(path);
             }
         }
+        REPO.add(new ArrayList<>(fileNames));
+    }
+
+    /** Returns the path of the working file named by OPERAND, or OPERAND
+     *  itself if it does not name a file in the working tree. */
+    private static String trackedName(String operand) {
+        String result = WorkingTree.normalize(operand);
+        return result == null ? operand : result;
+    }
+
+    /** Returns true if OPERAND contains glob wildcards. */
+    private static boolean isGlob(String operand) {
+        for (char c : "*?[{".toCharArray()) {
+            if (operand.indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /** Commit helper. */
@@ -188,8 +286,7 @@ public class Main {
             System.out.println("Incorrect operands.");
         } else if (_args[1].length() == 0) {
             System.out.println("Please enter a commit message.");
-        } else if (STAGINGADDITION.listFiles().length == 0
-                && STAGINGREMOVAL.listFiles().length == 0) {
+        } else if (StagingArea.isEmpty()) {
             System.out.println("No changes added to the commit.");
         } else {
             String commitMessage = _args[1];
@@ -202,12 +299,10 @@ public class Main {
         if (_args.length != 2) {
             System.out.println("Incorrect operands.");
         } else {
-            String fileName = _args[1];
-            File fileToRemoveInStagingAddition
-                    = Utils.join(STAGINGADDITION, fileName);
+            String fileName = trackedName(_args[1]);
 
-            if (!fileToRemoveInStagingAddition.exists()
-                    && !getHeadCommit().blobs().containsKey(fileName)) {
+            if (!StagingArea.additions().containsKey(fileName)
+                    && getHeadCommit().blob(fileName) == null) {
                 System.out.println("No reason to remove the file.");
             } else {
                 REPO.rm(fileName);
@@ -217,29 +312,96 @@ public class Main {
 
     /** Log helper. */
     private static void log() {
-        if (_args.length != 1) {
-            System.out.println("Incorrect operands.");
-        } else {
-            REPO.log();
+        try (HistoryWriter history = historyWriter()) {
+            if (history == null) {
+                System.out.println("Incorrect operands.");
+            } else {
+                REPO.log(history);
+            }
         }
     }
 
     /** Globallog helper. */
     private static void globalLog() {
-        if (_args.length != 1) {
-            System.out.println("Incorrect operands.");
-        } else {
-            REPO.globalLog();
+        try (HistoryWriter history = historyWriter()) {
+            if (history == null) {
+                System.out.println("Incorrect operands.");
+            } else {
+                REPO.globalLog(history);
+            }
+        }
+    }
+
+    /** Returns a history writer for the log options after the command
+     *  name, -n or --max-count COUNT, --since DATE, --until DATE and
+     *  --oneline, or null if they are bad.  Options with a value may also
+     *  be written as --option=VALUE. */
+    private static HistoryWriter historyWriter() {
+        int maxCount = -1;
+        Instant since = null;
+        Instant until = null;
+        boolean oneline = false;
+        for (int i = 1; i < _args.length; i += 1) {
+            String option = _args[i];
+            String value = null;
+            int equals = option.indexOf('=');
+            if (option.startsWith("--") && equals > 0) {
+                value = option.substring(equals + 1);
+                option = option.substring(0, equals);
+            }
+            if (option.equals("--oneline")) {
+                if (value != null) {
+                    return null;
+                }
+                oneline = true;
+                continue;
+            }
+            if (value == null) {
+                if (i + 1 == _args.length) {
+                    return null;
+                }
+                i += 1;
+                value = _args[i];
+            }
+            switch (option) {
+            case "-n":
+            case "--max-count":
+                try {
+                    maxCount = Integer.parseInt(value);
+                } catch (NumberFormatException excp) {
+                    return null;
+                }
+                break;
+            case "--since":
+                since = HistoryWriter.parseDate(value);
+                if (since == null) {
+                    return null;
+                }
+                break;
+            case "--until":
+                until = HistoryWriter.parseDate(value);
+                if (until == null) {
+                    return null;
+                }
+                break;
+            default:
+                return null;
+            }
         }
+        return new HistoryWriter(maxCount, since, until, oneline);
     }
 
     /** Find helper. */
     private static void find() {
-        if (_args.length != 2) {
-            System.out.println("Incorrect operands.");
-        } else {
+        if (_args.length == 2) {
             String commitMessage = _args[1];
             REPO.find(commitMessage);
+        } else if (_args.length == 3 && _args[1].equals("--substring")) {
+            REPO.findSubstring(_args[2]);
+        } else if (_args.length == 3 && _args[1].equals("--token")) {
+            REPO.findTokens(_args[2]);
+        } else {
+            System.out.println("Incorrect operands.");
         }
     }
 
@@ -270,8 +432,8 @@ public class Main {
         if (!_args[1].equals("--")) {
             System.out.println("Incorrect operands.");
         } else {
-            String fileName = _args[2];
-            if (!getHeadCommit().blobs().containsKey(fileName)) {
+            String fileName = trackedName(_args[2]);
+            if (getHeadCommit().blob(fileName) == null) {
                 System.out.println("File does not exist in that commit.");
             } else {
                 REPO.checkout1(fileName);
@@ -284,24 +446,12 @@ public class Main {
         if (!_args[2].equals("--")) {
             System.out.println("Incorrect operands.");
         } else {
-            String commitSHAPossiblyAbbreviated = _args[1];
-            String fileName = _args[3];
-            List<String> commitList = Utils.plainFilenamesIn(COMMITS);
-
-            String fullCommitSHA = null;
-            for (String commitSHA : commitList) {
-                if (commitSHA.equals(commitSHAPossiblyAbbreviated)
-                        || commitSHA.contains(commitSHAPossiblyAbbreviated)) {
-                    fullCommitSHA = commitSHA;
-                    break;
-                }
-            }
+            String fullCommitSHA = resolveCommitSHA(_args[1]);
+            String fileName = trackedName(_args[3]);
 
-            if (fullCommitSHA == null) {
-                System.out.println("No commit with that id exists.");
-            } else {
+            if (fullCommitSHA != null) {
                 Commit commit = getCommit(fullCommitSHA);
-                if (!commit.blobs().containsKey(fileName)) {
+                if (commit.blob(fileName) == null) {
                     System.out.println("File does not exist in that commit.");
                 } else {
                     REPO.checkout2(commit, fileName);
@@ -363,21 +513,12 @@ public class Main {
         if (_args.length != 2) {
             System.out.println("Incorrect operands.");
         } else {
-            String commitSHAPossiblyAbbreviated = _args[1];
-            List<String> commitList = Utils.plainFilenamesIn(COMMITS);
-
-            String fullCommitSHA = null;
-            for (String commitSHA : commitList) {
-                if (commitSHA.equals(commitSHAPossiblyAbbreviated)
-                        || commitSHA.contains(commitSHAPossiblyAbbreviated)) {
-                    fullCommitSHA = commitSHA;
-                    break;
-                }
-            }
+            String fullCommitSHA = resolveCommitSHA(_args[1]);
 
             if (fullCommitSHA == null) {
-                System.out.println("No commit with that id exists.");
-            } else if (wouldOverwriteCWDFiles(getCommit(fullCommitSHA))) {
+                return;
+            }
+            if (wouldOverwriteCWDFiles(getCommit(fullCommitSHA))) {
                 System.out.println("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
             } else {
@@ -386,19 +527,43 @@ public class Main {
         }
     }
 
-    /** Reset helper. */
+    /** Pack helper. */
+    private static void pack() throws IOException {
+        if (_args.length != 1) {
+            System.out.println("Incorrect operands.");
+        } else {
+            REPO.pack();
+        }
+    }
+
+    /** Migrate-objects helper. */
+    private static void migrateObjects() throws IOException {
+        if (_args.length != 1) {
+            System.out.println("Incorrect operands.");
+        } else {
+            REPO.migrateObjects();
+        }
+    }
+
+    /** Daemon helper. */
+    private static void daemon() throws IOException {
+        if (_args.length == 1) {
+            Daemon.serve();
+        } else if (_args.length == 2 && _args[1].equals("--stop")) {
+            Daemon.stop();
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /** Merge helper. */
     private static void merge() throws IOException {
         if (_args.length != 2) {
             System.out.println("Incorrect operands.");
         } else {
             String branch = _args[1];
             List<String> branchList = Utils.plainFilenamesIn(BRANCHES);
-            List<String> stagingAdditionList
-                    = Utils.plainFilenamesIn(STAGINGADDITION);
-            List<String> stagingRemovalList
-                    = Utils.plainFilenamesIn(STAGINGREMOVAL);
-            if (stagingAdditionList.size() != 0
-                    || stagingRemovalList.size() != 0) {
+            if (!StagingArea.isEmpty()) {
                 System.out.println("You have uncommitted changes.");
             } else if (!branchList.contains(branch)) {
                 System.out.println("A branch with that name does not exist.");
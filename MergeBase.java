@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+/** Merge-base (split point) computation for Gitlet, the tiny stupid ass
+ *  version-control system.
+ *
+ *  Every commit carries a generation number: 1 for the initial commit and
+ *  one more than the largest generation of its parents otherwise, so a
+ *  commit's generation is always greater than that of any ancestor.  The
+ *  split point is found by walking back from both heads at once, newest
+ *  generation first, marking each commit with the side(s) it is reachable
+ *  from.  Because every child of a commit is visited before the commit
+ *  itself, the first commit reached from both sides is a latest common
+ *  ancestor, and nothing older than it is ever visited.  The walk reads
+ *  parents and generations from the commit graph, so the only commit file
+ *  opened is that of the split point itself.
+ *  @author Song Bai
+ */
+class MergeBase {
+
+    /** Mark for commits reachable from the current branch head. */
+    private static final int CURRENT = 1;
+
+    /** Mark for commits reachable from the given branch head. */
+    private static final int GIVEN = 2;
+
+    /** Mark for commits reachable from both heads. */
+    private static final int BOTH = CURRENT | GIVEN;
+
+    /** Orders commit graph positions newest generation first, then by
+     *  position. */
+    private static final Comparator<Integer> NEWEST_FIRST =
+        Comparator.comparingInt((Integer p) -> -CommitGraph.generation(p))
+            .thenComparingInt(p -> -p);
+
+    /** Returns the split point of CURRENT and GIVEN, which must both have
+     *  ids, or null if they share no history. */
+    static Commit find(Commit current, Commit given) {
+        int currentPosition = CommitGraph.ensure(current.id());
+        int givenPosition = CommitGraph.ensure(given.id());
+        HashMap<Integer, Integer> marks = new HashMap<>();
+        HashSet<Integer> visited = new HashSet<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(NEWEST_FIRST);
+
+        marks.put(currentPosition, CURRENT);
+        marks.merge(givenPosition, GIVEN, (a, b) -> a | b);
+        queue.add(currentPosition);
+        queue.add(givenPosition);
+
+        while (!queue.isEmpty()) {
+            int position = queue.remove();
+            if (!visited.add(position)) {
+                continue;
+            }
+            int mark = marks.get(position);
+            if (mark == BOTH) {
+                return CommitCache.get(CommitGraph.id(position));
+            }
+            markParent(CommitGraph.parent(position), mark, marks, queue);
+            markParent(CommitGraph.parent2(position), mark, marks, queue);
+        }
+        return null;
+    }
+
+    /** Adds MARK to the marks of the commit at graph position PARENT and
+     *  queues it if that gave it a new mark.  MARKS holds the marks so far
+     *  and QUEUE the positions still to visit. */
+    private static void markParent(int parent, int mark,
+                                   HashMap<Integer, Integer> marks,
+                                   PriorityQueue<Integer> queue) {
+        if (parent == CommitGraph.NONE) {
+            return;
+        }
+        int oldMark = marks.getOrDefault(parent, 0);
+        if ((oldMark | mark) != oldMark) {
+            marks.put(parent, oldMark | mark);
+            queue.add(parent);
+        }
+    }
+
+    /** Returns the generation number of COMMIT, which must have an id if
+     *  it was written without one, in which case the commit graph has it
+     *  worked out from its ancestors. */
+    static int generation(Commit commit) {
+        if (commit.generation() > 0) {
+            return commit.generation();
+        }
+        return CommitGraph.generation(CommitGraph.ensure(commit.id()));
+    }
+}
@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Three-way merge planning for Gitlet, the tiny stupid ass
+ *  version-control system.
+ *
+ *  A plan is made in one pass over the names tracked by the split point,
+ *  the current branch head and the given branch head, comparing the blob
+ *  each one has for the name (or none).  Only names whose action is
+ *  anything other than KEEP are recorded, so carrying out a plan touches
+ *  only the files the given branch changed.
+ *  @author Song Bai
+ */
+class MergePlanner {
+
+    /** What a merge does with one file. */
+    enum Action {
+        /** Leave the current branch's version alone. */
+        KEEP,
+        /** Check out and stage the given branch's version. */
+        TAKE_GIVEN,
+        /** Remove and stage the removal of the file. */
+        REMOVE,
+        /** Write both versions with conflict markers. */
+        CONFLICT
+    }
+
+    /** Returns the action for every file that merging GIVEN into CURRENT
+     *  with split point SPLIT would change, in file name order. */
+    static TreeMap<String, Action> plan(Commit split, Commit current,
+                                        Commit given) {
+        TreeSet<String> fileNames = new TreeSet<>(split.blobs().keySet());
+        fileNames.addAll(current.blobs().keySet());
+        fileNames.addAll(given.blobs().keySet());
+
+        TreeMap<String, Action> plan = new TreeMap<>();
+        for (String fileName : fileNames) {
+            Action action = classify(split.blobs(), current.blobs(),
+                    given.blobs(), fileName);
+            if (action != Action.KEEP) {
+                plan.put(fileName, action);
+            }
+        }
+        return plan;
+    }
+
+    /** Returns the action for FILENAME given the blobs tracked by the
+     *  split point, SPLITBLOBS, the current head, CURRENTBLOBS, and the
+     *  given head, GIVENBLOBS. */
+    static Action classify(Map<String, String> splitBlobs,
+                           Map<String, String> currentBlobs,
+                           Map<String, String> givenBlobs,
+                           String fileName) {
+        String splitSHA = splitBlobs.get(fileName);
+        String currentSHA = currentBlobs.get(fileName);
+        String givenSHA = givenBlobs.get(fileName);
+
+        if (Objects.equals(currentSHA, givenSHA)
+                || Objects.equals(splitSHA, givenSHA)) {
+            return Action.KEEP;
+        } else if (Objects.equals(splitSHA, currentSHA)) {
+            return givenSHA == null ? Action.REMOVE : Action.TAKE_GIVEN;
+        } else {
+            return Action.CONFLICT;
+        }
+    }
+}
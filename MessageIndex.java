@@ -0,0 +1,305 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/** Commit message index for Gitlet, the tiny stupid ass version-control
+ *  system.
+ *
+ *  Each commit is indexed under its whole message and under each token
+ *  of it, a token being a run of letters and digits, lowercased.  A key
+ *  is the SHA-1 hash of its kind and text, and the index is a hash table
+ *  of 256 shards, the files .gitlet/messages/00 to ff, chosen by the first
+ *  byte of the hash.  Each shard is a list of 24-byte entries, a key hash
+ *  followed by the commit graph position of a commit indexed under it, so
+ *  a search reads one shard per key instead of every commit.
+ *
+ *  The commits indexed are always the first ones in the commit graph;
+ *  .gitlet/messages/indexed holds the magic bytes 'g' 'l' 'm' VERSION,
+ *  their number and the id of the last of them.  The index is brought up
+ *  to date on every commit and before every search, and is rebuilt if the
+ *  commit graph no longer starts with the commits it indexed.  A shard
+ *  whose last entry a crash left partly written is cut back to its whole
+ *  entries before it is next appended to, and every hit is checked
+ *  against its message, so a batch indexed twice does no harm.  If the
+ *  index cannot be updated on a commit, it is dropped, and the next search
+ *  rebuilds it.  Substring searches do not use the index; they scan the
+ *  messages in the commit graph.
+ *  @author Song Bai
+ */
+class MessageIndex {
+
+    /** .gitlet folder. */
+    static final File GITLET = new File(".gitlet");
+
+    /** Message index folder. */
+    static final File MESSAGES = Utils.join(GITLET, "messages");
+
+    /** File naming the commits indexed. */
+    static final File INDEXED = Utils.join(MESSAGES, "indexed");
+
+    /** Magic bytes of the indexed file. */
+    private static final byte[] MAGIC = { 'g', 'l', 'm', 1 };
+
+    /** Kind of the key for a whole message. */
+    private static final byte EXACT = 'm';
+
+    /** Kind of the key for a token. */
+    private static final byte TOKEN = 't';
+
+    /** Length of a key hash. */
+    private static final int KEY_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Size of a shard entry. */
+    private static final int ENTRY_SIZE = KEY_LENGTH + Integer.BYTES;
+
+    /** Number of shards. */
+    private static final int SHARDS = 256;
+
+    /** Number of commits indexed between writes of the shards. */
+    private static final int BATCH = 1 << 14;
+
+    /** Returns the ids of the commits with MESSAGE, in lexicographic
+     *  order. */
+    static synchronized List<String> exact(String message) {
+        update();
+        List<String> result = new ArrayList<>();
+        int count = CommitGraph.count();
+        for (int position : lookup(key(EXACT, message))) {
+            if (position < count
+                    && CommitGraph.message(position).equals(message)) {
+                result.add(CommitGraph.id(position));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns the ids of the commits whose messages have every token of
+     *  TEXT, in lexicographic order. */
+    static synchronized List<String> withTokens(String text) {
+        update();
+        LinkedHashSet<Integer> found = null;
+        for (String token : tokens(text)) {
+            LinkedHashSet<Integer> positions = lookup(key(TOKEN, token));
+            if (found == null) {
+                found = positions;
+            } else {
+                found.retainAll(positions);
+            }
+        }
+        List<String> result = new ArrayList<>();
+        if (found != null) {
+            TreeSet<String> tokens = tokens(text);
+            int count = CommitGraph.count();
+            for (int position : found) {
+                if (position < count && tokens(CommitGraph.message(position))
+                        .containsAll(tokens)) {
+                    result.add(CommitGraph.id(position));
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns the ids of the commits whose messages contain TEXT, in
+     *  lexicographic order. */
+    static synchronized List<String> containing(String text) {
+        List<String> result = new ArrayList<>();
+        int count = CommitGraph.count();
+        for (int position = 0; position < count; position += 1) {
+            if (CommitGraph.message(position).contains(text)) {
+                result.add(CommitGraph.id(position));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Indexes the commits in the commit graph not indexed yet. */
+    static synchronized void update() {
+        int indexed = indexed();
+        int count = CommitGraph.count();
+        if (indexed < count && RepoLock.upgrade()) {
+            CommitGraph.reset();
+            indexed = indexed();
+            count = CommitGraph.count();
+        }
+        if (indexed == 0) {
+            for (int shard = 0; shard < SHARDS; shard += 1) {
+                shardFile(shard).delete();
+            }
+        }
+        while (indexed < count) {
+            int end = Math.min(count, indexed + BATCH);
+            HashMap<Integer, ByteArrayOutputStream> shards = new HashMap<>();
+            for (int position = indexed; position < end; position += 1) {
+                String message = CommitGraph.message(position);
+                addEntry(shards, key(EXACT, message), position);
+                for (String token : tokens(message)) {
+                    addEntry(shards, key(TOKEN, token), position);
+                }
+            }
+            try {
+                for (Map.Entry<Integer, ByteArrayOutputStream> entry
+                         : shards.entrySet()) {
+                    appendTo(shardFile(entry.getKey()), entry.getValue());
+                }
+                writeIndexed(end);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            indexed = end;
+        }
+    }
+
+    /** Indexes the commits not indexed yet, as update does, except that if
+     *  the index cannot be updated, it is dropped, to be rebuilt by the
+     *  next search, instead of failing the command. */
+    static synchronized void tryUpdate() {
+        try {
+            update();
+        } catch (RuntimeException excp) {
+            INDEXED.delete();
+        }
+    }
+
+    /** Appends the entries in ENTRIES to the shard file SHARD, first
+     *  cutting off any entry a crash left partly written. */
+    private static void appendTo(File shard, ByteArrayOutputStream entries)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(shard.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long size = channel.size() - channel.size() % ENTRY_SIZE;
+            channel.truncate(size);
+            channel.position(size);
+            ByteBuffer buffer = ByteBuffer.wrap(entries.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /** Returns the number of commits indexed, or 0 if the index does not
+     *  match the commit graph. */
+    private static int indexed() {
+        MESSAGES.mkdir();
+        int count = 0;
+        if (INDEXED.isFile()) {
+            ByteBuffer indexed = ByteBuffer.wrap(Utils.readContents(INDEXED));
+            byte[] magic = new byte[MAGIC.length];
+            byte[] lastId = new byte[KEY_LENGTH];
+            if (indexed.remaining() == MAGIC.length + Integer.BYTES
+                    + KEY_LENGTH) {
+                indexed.get(magic);
+                count = indexed.getInt();
+                indexed.get(lastId);
+            }
+            if (!Arrays.equals(magic, MAGIC) || count > CommitGraph.count()
+                    || (count > 0 && !Pack.toHex(lastId)
+                        .equals(CommitGraph.id(count - 1)))) {
+                count = 0;
+            }
+        }
+        return count;
+    }
+
+    /** Records that the first COUNT commits in the commit graph are
+     *  indexed. */
+    private static void writeIndexed(int count) throws IOException {
+        ByteBuffer indexed =
+            ByteBuffer.allocate(MAGIC.length + Integer.BYTES + KEY_LENGTH);
+        indexed.put(MAGIC);
+        indexed.putInt(count);
+        indexed.put(Pack.toBytes(CommitGraph.id(count - 1)));
+        File tempFile = File.createTempFile("indexed", ".tmp", MESSAGES);
+        try {
+            Utils.writeContents(tempFile, indexed.array());
+            Files.move(tempFile.toPath(), INDEXED.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /** Returns the positions of the commits indexed under KEY. */
+    private static LinkedHashSet<Integer> lookup(byte[] key) {
+        LinkedHashSet<Integer> result = new LinkedHashSet<>();
+        File shard = shardFile(key[0] & 0xff);
+        if (!shard.isFile()) {
+            return result;
+        }
+        ByteBuffer entries = ByteBuffer.wrap(Utils.readContents(shard));
+        byte[] bytes = entries.array();
+        for (int start = 0; start + ENTRY_SIZE <= bytes.length;
+             start += ENTRY_SIZE) {
+            if (Arrays.equals(bytes, start, start + KEY_LENGTH,
+                              key, 0, KEY_LENGTH)) {
+                result.add(entries.getInt(start + KEY_LENGTH));
+            }
+        }
+        return result;
+    }
+
+    /** Adds an entry for KEY and POSITION to the bytes to be appended to
+     *  its shard in SHARDS. */
+    private static void addEntry(HashMap<Integer, ByteArrayOutputStream>
+                                 shards, byte[] key, int position) {
+        ByteArrayOutputStream shard = shards.computeIfAbsent(key[0] & 0xff,
+            k -> new ByteArrayOutputStream());
+        shard.write(key, 0, KEY_LENGTH);
+        shard.write(position >>> 24);
+        shard.write(position >>> 16);
+        shard.write(position >>> 8);
+        shard.write(position);
+    }
+
+    /** Returns the hash of the key of KIND for TEXT. */
+    private static byte[] key(byte kind, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(kind);
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the distinct tokens of TEXT. */
+    static TreeSet<String> tokens(String text) {
+        TreeSet<String> result = new TreeSet<>();
+        for (String token : text.toLowerCase(Locale.ROOT)
+                 .split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the file of shard number SHARD. */
+    private static File shardFile(int shard) {
+        return Utils.join(MESSAGES, String.format("%02x", shard));
+    }
+}
@@ -0,0 +1,420 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Object lookup for Gitlet, the tiny stupid ass version-control system.
+ *
+ *  Commits, blobs and trees live either as loose files, one per object,
+ *  in the commits, blobs and trees folders, or inside packs in the packs
+ *  folder.  A loose object with id ABCDEF... is stored as AB/CDEF...
+ *  within its folder, so that no one folder grows too large; objects
+ *  written by older versions directly in the folder as ABCDEF... are
+ *  still read, and the migrate-objects command moves them into place.
+ *  Both hold the same stored bytes, so readers need not care which one an
+ *  object came from, except that a blob may be packed as a delta against
+ *  another blob, which reads back as that blob's uncompressed contents.
+ *  The pack command moves all loose objects into a new pack, deltifying
+ *  each new version of a file against the version before it as long as
+ *  the chain of deltas to rebuild it stays at most gitlet.pack.depth
+ *  (default 10) long.
+ *  @author Song Bai
+ */
+class ObjectStore {
+
+    /** .gitlet folder. */
+    static final File GITLET = new File(".gitlet");
+
+    /** Commits folder. */
+    static final File COMMITS = Utils.join(GITLET, "commits");
+
+    /** Blobs folder. */
+    static final File BLOBS = Utils.join(GITLET, "blobs");
+
+    /** Trees folder. */
+    static final File TREES = Utils.join(GITLET, "trees");
+
+    /** Packs folder. */
+    static final File PACKS = Utils.join(GITLET, "packs");
+
+    /** Type of commit objects. */
+    static final int COMMIT = 1;
+
+    /** Type of blob objects. */
+    static final int BLOB = 2;
+
+    /** Type of tree objects. */
+    static final int TREE = 3;
+
+    /** Types of all objects. */
+    private static final int[] TYPES = { COMMIT, BLOB, TREE };
+
+    /** Longest chain of deltas a packed blob may need. */
+    private static final int MAX_DEPTH =
+        Integer.getInteger("gitlet.pack.depth", 10);
+
+    /** The packs in PACKS, opened on first use. */
+    private static List<Pack> _packs;
+
+    /** Returns the folder holding loose objects of TYPE. */
+    private static File looseDir(int type) {
+        switch (type) {
+        case COMMIT:
+            return COMMITS;
+        case BLOB:
+            return BLOBS;
+        case TREE:
+            return TREES;
+        default:
+            throw Utils.error("Unknown object type %d.", type);
+        }
+    }
+
+    /** Returns the sharded loose file for the object of TYPE with ID,
+     *  which need not exist. */
+    private static File shardedFile(int type, String id) {
+        return Utils.join(looseDir(type), id.substring(0, 2),
+                id.substring(2));
+    }
+
+    /** Returns the loose file holding the object of TYPE with ID, in either
+     *  layout, or null if it is not stored loose. */
+    static File looseFile(int type, String id) {
+        File sharded = shardedFile(type, id);
+        if (sharded.isFile()) {
+            return sharded;
+        }
+        File flat = Utils.join(looseDir(type), id);
+        return flat.isFile() ? flat : null;
+    }
+
+    /** Returns the file to write the loose object of TYPE with ID to,
+     *  creating its folders if needed. */
+    static File newLooseFile(int type, String id) {
+        File result = shardedFile(type, id);
+        result.getParentFile().mkdirs();
+        return result;
+    }
+
+    /** Returns the ids of all loose objects of TYPE, in either layout, in
+     *  lexicographic order. */
+    private static List<String> looseIds(int type) {
+        TreeSet<String> result = new TreeSet<>();
+        File dir = looseDir(type);
+        String[] names = dir.list();
+        if (names == null) {
+            return new ArrayList<>();
+        }
+        for (String name : names) {
+            if (isHex(name, Utils.UID_LENGTH)) {
+                result.add(name);
+            } else if (isHex(name, 2)) {
+                List<String> rest = Utils.plainFilenamesIn(new File(dir, name));
+                if (rest != null) {
+                    for (String suffix : rest) {
+                        if (isHex(suffix, Utils.UID_LENGTH - 2)) {
+                            result.add(name + suffix);
+                        }
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns true if NAME is LENGTH lowercase hexadecimal digits. */
+    private static boolean isHex(String name, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i += 1) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Deletes the temporary files left in the shard folders and the packs
+     *  folder by writers that were cut short, and returns the number
+     *  deleted.  Only call it holding the exclusive repo lock, since
+     *  otherwise the files may still be in use. */
+    static int deleteTempFiles() {
+        List<File> dirs = new ArrayList<>();
+        dirs.add(PACKS);
+        for (int type : TYPES) {
+            File[] shards = looseDir(type).listFiles(File::isDirectory);
+            if (shards != null) {
+                dirs.addAll(Arrays.asList(shards));
+            }
+        }
+        int deleted = 0;
+        for (File dir : dirs) {
+            File[] temps = dir.listFiles((parent, name) ->
+                    name.endsWith(".tmp"));
+            if (temps == null) {
+                continue;
+            }
+            for (File temp : temps) {
+                if (temp.delete()) {
+                    deleted += 1;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /** Moves every loose object stored in the old flat layout into its
+     *  shard folder and returns the number moved, first deleting any
+     *  temporary files left behind. */
+    static int migrate() throws IOException {
+        deleteTempFiles();
+        int moved = 0;
+        for (int type : TYPES) {
+            List<String> flat = Utils.plainFilenamesIn(looseDir(type));
+            if (flat == null) {
+                continue;
+            }
+            for (String id : flat) {
+                if (!isHex(id, Utils.UID_LENGTH)) {
+                    continue;
+                }
+                Files.move(Utils.join(looseDir(type), id).toPath(),
+                        newLooseFile(type, id).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                moved += 1;
+            }
+        }
+        return moved;
+    }
+
+    /** Returns the packs of this repo. */
+    private static synchronized List<Pack> packs() {
+        if (_packs == null) {
+            _packs = new ArrayList<>();
+            File[] indexFiles = PACKS.listFiles((dir, name) ->
+                    name.endsWith(".idx"));
+            if (indexFiles != null) {
+                for (File indexFile : indexFiles) {
+                    try {
+                        _packs.add(new Pack(indexFile));
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(excp.getMessage());
+                    }
+                }
+            }
+        }
+        return _packs;
+    }
+
+    /** Closes the packs opened so far, so that they are looked for again
+     *  on next use. */
+    static synchronized void reset() {
+        if (_packs == null) {
+            return;
+        }
+        for (Pack pack : _packs) {
+            try {
+                pack.close();
+            } catch (IOException excp) {
+                /* Already unusable. */
+            }
+        }
+        _packs = null;
+    }
+
+    /** Returns true if the object of TYPE with ID is stored. */
+    static boolean contains(int type, String id) {
+        for (Pack pack : packs()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return looseFile(type, id) != null;
+    }
+
+    /** Returns the stored bytes of the object of TYPE with ID. */
+    static byte[] read(int type, String id) {
+        for (Pack pack : packs()) {
+            int packedType = pack.type(id);
+            if (packedType < 0) {
+                continue;
+            }
+            byte[] stored = pack.read(id);
+            if ((packedType & Pack.DELTA) != 0) {
+                return BlobStore.storedForm(undelta(stored));
+            }
+            return stored;
+        }
+        return Utils.readContents(existingLooseFile(type, id));
+    }
+
+    /** Returns the loose file holding the object of TYPE with ID, which
+     *  must be stored loose. */
+    private static File existingLooseFile(int type, String id) {
+        File result = looseFile(type, id);
+        if (result == null) {
+            throw new IllegalArgumentException("no such object " + id);
+        }
+        return result;
+    }
+
+    /** Returns the contents rebuilt from the packed delta PACKED. */
+    private static byte[] undelta(byte[] packed) {
+        String baseId = Pack.toHex(Arrays.copyOf(packed, Pack.ID_LENGTH));
+        byte[] base = BlobStore.read(baseId);
+        return Delta.apply(base, Delta.inflate(packed, Pack.ID_LENGTH));
+    }
+
+    /** Returns a stream of the stored bytes of the object of TYPE with ID,
+     *  reading a loose object incrementally. */
+    static InputStream open(int type, String id) throws IOException {
+        for (Pack pack : packs()) {
+            if (pack.contains(id)) {
+                return new ByteArrayInputStream(read(type, id));
+            }
+        }
+        return Files.newInputStream(existingLooseFile(type, id).toPath());
+    }
+
+    /** Returns the ids of all stored objects of TYPE, loose or packed, in
+     *  lexicographic order. */
+    static List<String> ids(int type) {
+        TreeSet<String> result = new TreeSet<>(looseIds(type));
+        for (Pack pack : packs()) {
+            result.addAll(pack.ids(type));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Moves every loose object into a new pack and returns the number of
+     *  objects packed, first deleting any temporary files left behind. */
+    static int pack() throws IOException {
+        deleteTempFiles();
+        TreeMap<String, Integer> objects = new TreeMap<>();
+        for (int type : TYPES) {
+            for (String id : looseIds(type)) {
+                objects.put(id, type);
+            }
+        }
+        if (objects.isEmpty()) {
+            return 0;
+        }
+
+        HashMap<String, byte[]> deltas = deltify(objects);
+        for (String id : deltas.keySet()) {
+            objects.put(id, BLOB | Pack.DELTA);
+        }
+
+        PACKS.mkdir();
+        File indexFile = Pack.write(PACKS, objects, id ->
+            deltas.containsKey(id) ? deltas.get(id)
+            : Utils.readContents(existingLooseFile(objects.get(id), id)));
+        synchronized (ObjectStore.class) {
+            packs().add(new Pack(indexFile));
+        }
+        Journal.checkpoint();
+        for (String id : objects.keySet()) {
+            existingLooseFile(objects.get(id) & ~Pack.DELTA, id).delete();
+        }
+        return objects.size();
+    }
+
+    /** Returns the packed form of each loose blob in OBJECTS that is
+     *  worth storing as a delta, keyed by blob id.  Commits are visited
+     *  oldest generation first, and a blob's base is the version of the
+     *  same file it replaced the first time it appears.  Since a base is
+     *  always seen before the blobs built on it, chains never loop. */
+    private static HashMap<String, byte[]> deltify(
+            TreeMap<String, Integer> objects) {
+        List<Commit> commits = new ArrayList<>();
+        for (String commitSHA : ids(COMMIT)) {
+            commits.add(CommitCache.get(commitSHA));
+        }
+        commits.sort(Comparator.comparingInt(MergeBase::generation));
+
+        HashMap<String, byte[]> deltas = new HashMap<>();
+        HashMap<String, Integer> depths = new HashMap<>();
+        HashMap<String, String> lastVersions = new HashMap<>();
+        HashSet<String> seen = new HashSet<>();
+        for (Commit commit : commits) {
+            for (Map.Entry<String, String> entry
+                     : commit.blobs().entrySet()) {
+                String blobSHA = entry.getValue();
+                String previous = lastVersions.put(entry.getKey(), blobSHA);
+                if (!seen.add(blobSHA) || previous == null
+                        || previous.equals(blobSHA)
+                        || objects.getOrDefault(blobSHA, 0) != BLOB) {
+                    continue;
+                }
+                int baseDepth = depth(previous, depths);
+                if (baseDepth >= MAX_DEPTH) {
+                    continue;
+                }
+                byte[] packed = deltaAgainst(previous, blobSHA);
+                if (packed != null) {
+                    deltas.put(blobSHA, packed);
+                    depths.put(blobSHA, baseDepth + 1);
+                }
+            }
+        }
+        return deltas;
+    }
+
+    /** Returns the packed delta rebuilding the loose blob with BLOBSHA from
+     *  the blob with BASESHA, or null if it would not save at least a
+     *  quarter of the loose blob's size. */
+    private static byte[] deltaAgainst(String baseSHA, String blobSHA) {
+        byte[] delta = Delta.deflate(Delta.create(BlobStore.read(baseSHA),
+                BlobStore.read(blobSHA)));
+        long looseLength = existingLooseFile(BLOB, blobSHA).length();
+        if (Pack.ID_LENGTH + delta.length > looseLength * 3 / 4) {
+            return null;
+        }
+        byte[] packed = Arrays.copyOf(Pack.toBytes(baseSHA),
+                Pack.ID_LENGTH + delta.length);
+        System.arraycopy(delta, 0, packed, Pack.ID_LENGTH, delta.length);
+        return packed;
+    }
+
+    /** Returns the number of deltas needed to rebuild the blob with ID,
+     *  using DEPTHS for blobs being deltified in this pack. */
+    private static int depth(String id, HashMap<String, Integer> depths) {
+        int result = 0;
+        while (result <= MAX_DEPTH) {
+            Integer known = depths.get(id);
+            if (known != null) {
+                return result + known;
+            }
+            String base = null;
+            for (Pack pack : packs()) {
+                int packedType = pack.type(id);
+                if (packedType >= 0 && (packedType & Pack.DELTA) != 0) {
+                    base = Pack.toHex(Arrays.copyOf(pack.read(id),
+                            Pack.ID_LENGTH));
+                    break;
+                }
+            }
+            if (base == null) {
+                return result;
+            }
+            id = base;
+            result += 1;
+        }
+        return result;
+    }
+}
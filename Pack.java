@@ -0,0 +1,319 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A pack of objects for Gitlet, the tiny stupid ass version-control
+ *  system.
+ *
+ *  A pack is a pair of files.  The .pack file holds the magic bytes
+ *  'g' 'l' 'p' VERSION followed by the stored bytes of each object, exactly
+ *  as they would appear in a loose object file, one after another.  The
+ *  .idx file holds the magic bytes 'g' 'l' 'x' VERSION, a fan-out table of
+ *  256 ints whose entry B is the number of objects whose id starts with a
+ *  byte no greater than B, and then one record per object in id order:
+ *
+ *      id          20 bytes
+ *      type        byte, with the DELTA bit set for deltified objects
+ *      offset      long, position of the object in the .pack file
+ *      length      int, number of stored bytes
+ *
+ *  A deltified object is stored instead as the 20-byte id of its base
+ *  object followed by a deflated Delta that rebuilds its contents from
+ *  the contents of the base.  Both files are memory-mapped for reading, so
+ *  finding an object is a binary search over at most one fan-out bucket of
+ *  the index.  Packs are never modified once written.
+ *  @author Song Bai
+ */
+class Pack {
+
+    /** Magic bytes of a .pack file. */
+    private static final byte[] PACK_MAGIC = { 'g', 'l', 'p', 1 };
+
+    /** Magic bytes of a .idx file. */
+    private static final byte[] INDEX_MAGIC = { 'g', 'l', 'x', 1 };
+
+    /** Type bit marking a deltified object. */
+    static final int DELTA = 0x40;
+
+    /** Length of an object id in bytes. */
+    static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Size of the fan-out table in bytes. */
+    private static final int FANOUT_SIZE = 256 * Integer.BYTES;
+
+    /** Offset of the first index record. */
+    private static final int RECORDS_START = INDEX_MAGIC.length + FANOUT_SIZE;
+
+    /** Size of one index record. */
+    private static final int RECORD_SIZE =
+        ID_LENGTH + 1 + Long.BYTES + Integer.BYTES;
+
+    /** My .pack file. */
+    private final File _packFile;
+
+    /** My index, mapped. */
+    private final MappedByteBuffer _index;
+
+    /** My objects, mapped, or null if my .pack file is too large to map in
+     *  one piece, in which case _channel is read instead. */
+    private final MappedByteBuffer _data;
+
+    /** Channel on my .pack file. */
+    private final FileChannel _channel;
+
+    /** Number of objects in me. */
+    private final int _count;
+
+    /** Opens the pack whose index is INDEXFILE. */
+    Pack(File indexFile) throws IOException {
+        String name = indexFile.getName();
+        _packFile = new File(indexFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel indexChannel =
+                FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            _index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    indexChannel.size());
+        }
+        for (int i = 0; i < INDEX_MAGIC.length; i += 1) {
+            if (_index.get(i) != INDEX_MAGIC[i]) {
+                throw Utils.error("Bad pack index %s.", name);
+            }
+        }
+        _count = _index.getInt(RECORDS_START - Integer.BYTES);
+
+        _channel = FileChannel.open(_packFile.toPath(),
+                StandardOpenOption.READ);
+        long size = _channel.size();
+        _data = size <= Integer.MAX_VALUE
+            ? _channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+    }
+
+    /** Closes my .pack file.  I may not be read after. */
+    void close() throws IOException {
+        _channel.close();
+    }
+
+    /** Returns my .pack file. */
+    File packFile() {
+        return _packFile;
+    }
+
+    /** Returns the number of objects in me. */
+    int size() {
+        return _count;
+    }
+
+    /** Returns the index of the record for the object with hexadecimal ID,
+     *  or -1 if I do not contain it. */
+    private int find(String id) {
+        byte[] key = toBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns true if I contain the object with ID. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Returns the type of the object with ID, including its DELTA bit, or
+     *  -1 if I do not contain it. */
+    int type(String id) {
+        int record = find(id);
+        return record < 0 ? -1 : _index.get(recordStart(record) + ID_LENGTH);
+    }
+
+    /** Returns the stored bytes of the object with ID, or null if I do not
+     *  contain it. */
+    byte[] read(String id) {
+        int record = find(id);
+        if (record < 0) {
+            return null;
+        }
+        int start = recordStart(record) + ID_LENGTH + 1;
+        long offset = _index.getLong(start);
+        int length = _index.getInt(start + Long.BYTES);
+        byte[] result = new byte[length];
+        if (_data != null) {
+            _data.get((int) offset, result);
+            return result;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(result);
+            while (buffer.hasRemaining()) {
+                if (_channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw Utils.error("Truncated pack %s.", _packFile);
+                }
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the ids of all my objects of TYPE, deltified or not, in
+     *  order. */
+    List<String> ids(int type) {
+        List<String> result = new ArrayList<>();
+        for (int record = 0; record < _count; record += 1) {
+            int start = recordStart(record);
+            if ((_index.get(start + ID_LENGTH) & ~DELTA) == type) {
+                byte[] id = new byte[ID_LENGTH];
+                _index.get(start, id);
+                result.add(toHex(id));
+            }
+        }
+        return result;
+    }
+
+    /** Returns entry B of the fan-out table. */
+    private int fanout(int b) {
+        return _index.getInt(INDEX_MAGIC.length + b * Integer.BYTES);
+    }
+
+    /** Returns the position of RECORD in my index. */
+    private static int recordStart(int record) {
+        return RECORDS_START + record * RECORD_SIZE;
+    }
+
+    /** Compares the id of RECORD with KEY. */
+    private int compareId(int record, byte[] key) {
+        int start = recordStart(record);
+        for (int i = 0; i < ID_LENGTH; i += 1) {
+            int cmp = Integer.compare(_index.get(start + i) & 0xff,
+                    key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Writes a new pack in DIR holding OBJECTS, which maps the id of each
+     *  object to its type, including its DELTA bit.  The bytes to store for
+     *  each object are supplied by SOURCE.  Returns the index file of the
+     *  new pack. */
+    static File write(File dir, TreeMap<String, Integer> objects,
+                      Source source) throws IOException {
+        File tempPack = File.createTempFile("pack", ".tmp", dir);
+        File tempIndex = null;
+        try {
+            tempIndex = File.createTempFile("idx", ".tmp", dir);
+            long[] offsets = new long[objects.size()];
+            int[] lengths = new int[objects.size()];
+
+            try (OutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(tempPack.toPath()), 1 << 16)) {
+                out.write(PACK_MAGIC);
+                long offset = PACK_MAGIC.length;
+                int i = 0;
+                for (String id : objects.keySet()) {
+                    byte[] stored = source.read(id);
+                    out.write(stored);
+                    offsets[i] = offset;
+                    lengths[i] = stored.length;
+                    offset += stored.length;
+                    i += 1;
+                }
+            }
+
+            int[] fanout = new int[256];
+            for (String id : objects.keySet()) {
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+            }
+            for (int b = 1; b < fanout.length; b += 1) {
+                fanout[b] += fanout[b - 1];
+            }
+
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                        Files.newOutputStream(tempIndex.toPath())))) {
+                out.write(INDEX_MAGIC);
+                for (int count : fanout) {
+                    out.writeInt(count);
+                }
+                int i = 0;
+                for (Map.Entry<String, Integer> entry : objects.entrySet()) {
+                    out.write(toBytes(entry.getKey()));
+                    out.writeByte(entry.getValue());
+                    out.writeLong(offsets[i]);
+                    out.writeInt(lengths[i]);
+                    i += 1;
+                }
+            }
+
+            String name =
+                "pack-" + Utils.sha1(String.join("", objects.keySet()));
+            File packFile = new File(dir, name + ".pack");
+            File indexFile = new File(dir, name + ".idx");
+            Journal.sync(tempPack);
+            Journal.sync(tempIndex);
+            Files.move(tempPack.toPath(), packFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tempIndex.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Journal.sync(dir);
+            return indexFile;
+        } finally {
+            tempPack.delete();
+            if (tempIndex != null) {
+                tempIndex.delete();
+            }
+        }
+    }
+
+    /** Supplies the stored bytes of objects being packed. */
+    interface Source {
+        /** Returns the stored bytes of the object with ID. */
+        byte[] read(String id) throws IOException;
+    }
+
+    /** Returns the raw bytes of hexadecimal ID. */
+    static byte[] toBytes(String id) {
+        byte[] result = new byte[ID_LENGTH];
+        for (int i = 0; i < ID_LENGTH; i += 1) {
+            result[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2),
+                    16);
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal form of raw id BYTES. */
+    static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >>> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/** Runs tasks on several threads for Gitlet, the tiny stupid ass
+ *  version-control system.
+ *  @author Song Bai
+ */
+class Parallel {
+
+    /** A task computing a result from its index, which may throw an
+     *  IOException. */
+    interface Task<R> {
+        /** Returns the result for INDEX. */
+        R run(int index) throws IOException;
+    }
+
+    /** Returns the results of TASK for each index from 0 to COUNT - 1, in
+     *  order, running on up to THREADS threads.  If a task throws, the rest
+     *  are cancelled as soon as it does and the first exception thrown is
+     *  rethrown, whichever task threw it. */
+    static <R> List<R> run(int count, int threads, Task<R> task)
+            throws IOException {
+        List<R> result = new ArrayList<>(count);
+        if (Math.min(threads, count) <= 1) {
+            for (int i = 0; i < count; i += 1) {
+                result.add(task.run(i));
+            }
+            return result;
+        }
+        ExecutorService pool =
+            Executors.newFixedThreadPool(Math.min(threads, count));
+        try {
+            CompletionService<R> done = new ExecutorCompletionService<>(pool);
+            List<Future<R>> futures = new ArrayList<>(count);
+            for (int i = 0; i < count; i += 1) {
+                int index = i;
+                futures.add(done.submit(() -> task.run(index)));
+            }
+            for (int i = 0; i < count; i += 1) {
+                get(take(done));
+            }
+            for (Future<R> future : futures) {
+                result.add(get(future));
+            }
+        } finally {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return result;
+    }
+
+    /** Returns the next task of DONE to finish, waiting for it. */
+    private static <R> Future<R> take(CompletionService<R> done) {
+        try {
+            return done.take();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    /** Returns the result of FUTURE once it is done, rethrowing whatever
+     *  it threw. */
+    private static <R> R get(Future<R> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException(cause);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/** Repository lock for Gitlet, the tiny stupid ass version-control system.
+ *
+ *  Every command but init and daemon holds a lock on .gitlet/lock while it
+ *  runs, so that gitlet processes sharing a repo never see each other's
+ *  work half done.  The commands that only read the repo, log, global-log,
+ *  find and status, hold a shared lock, so they never wait for each other;
+ *  every other command holds an exclusive lock.  A daemon locks for each
+ *  command it serves, not while it waits.
+ *
+ *  Reading commands may still find something to write: a commit graph or
+ *  message index to bring up to date, a journal to replay or a staging
+ *  area of an older version to convert.  Before writing, they trade their
+ *  shared lock for an exclusive one, which they then keep.  The trade is
+ *  not atomic, so another command may run in between, and what was read
+ *  before it is read again.  The stat index, being only a cache replaced
+ *  whole, is written under either lock.
+ *  @author Song Bai
+ */
+class RepoLock {
+
+    /** .gitlet folder. */
+    static final File GITLET = new File(".gitlet");
+
+    /** Lock file. */
+    static final File LOCK = Utils.join(GITLET, "lock");
+
+    /** Commands that only read the repo. */
+    private static final Set<String> READ_ONLY =
+        Set.of("log", "global-log", "find", "status");
+
+    /** Commands that take no lock. */
+    private static final Set<String> UNLOCKED = Set.of("init", "daemon");
+
+    /** Channel of the lock file, or null if no lock is held. */
+    private static FileChannel _channel;
+
+    /** The lock held, or null. */
+    private static FileLock _lock;
+
+    /** Number of locks taken. */
+    private static long _locks;
+
+    /** Number of locks that had to wait for another process. */
+    private static long _contended;
+
+    /** Number of shared locks traded for exclusive ones. */
+    private static long _upgrades;
+
+    /** Total time spent waiting for locks in ns. */
+    private static long _waitNanos;
+
+    /** Longest time spent waiting for a lock in ns. */
+    private static long _maxWaitNanos;
+
+    /** Takes the lock COMMAND needs, waiting for other processes to release
+     *  theirs.  Returns false, having done nothing, if COMMAND takes no
+     *  lock or a lock is already held. */
+    static synchronized boolean acquire(String command) throws IOException {
+        if (UNLOCKED.contains(command) || _channel != null) {
+            return false;
+        }
+        _channel = FileChannel.open(LOCK.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            lock(READ_ONLY.contains(command));
+        } catch (IOException | RuntimeException excp) {
+            _channel.close();
+            _channel = null;
+            throw excp;
+        }
+        return true;
+    }
+
+    /** Trades a shared lock for an exclusive one.  Returns true if it did
+     *  so, in which case another command may have run since the lock was
+     *  taken, and false if no lock or an exclusive one is held. */
+    static synchronized boolean upgrade() {
+        if (_lock == null || !_lock.isShared()) {
+            return false;
+        }
+        try {
+            _lock.release();
+            _lock = null;
+            lock(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _upgrades += 1;
+        return true;
+    }
+
+    /** Releases the lock held. */
+    static synchronized void release() throws IOException {
+        if (_channel == null) {
+            return;
+        }
+        try {
+            _channel.close();
+        } finally {
+            _channel = null;
+            _lock = null;
+        }
+    }
+
+    /** Returns a one-line summary of locking activity. */
+    static synchronized String stats() {
+        return String.format("repo lock: %d taken, %d contended, "
+                + "%d upgraded, %.1f ms waited, %.1f ms longest wait",
+                _locks, _contended, _upgrades, _waitNanos / 1e6,
+                _maxWaitNanos / 1e6);
+    }
+
+    /** Locks the whole lock file, shared if SHARED, first trying without
+     *  waiting so that contention is counted. */
+    private static void lock(boolean shared) throws IOException {
+        long start = System.nanoTime();
+        _lock = _channel.tryLock(0, Long.MAX_VALUE, shared);
+        if (_lock == null) {
+            _contended += 1;
+            _lock = _channel.lock(0, Long.MAX_VALUE, shared);
+            long wait = System.nanoTime() - start;
+            _waitNanos += wait;
+            _maxWaitNanos = Math.max(_maxWaitNanos, wait);
+        }
+        _locks += 1;
+    }
+}
@@ -3,10 +3,12 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 
 /** Repository class for Gitlet, the tiny stupid ass version-control system.
@@ -28,18 +30,15 @@ public class Repository implements Serializable {
     /** .gitlet folder. */
     static final File GITLET = new File(".gitlet");
 
-    /** Staging for addition folder. */
-    static final File STAGINGADDITION = Utils.join(GITLET, "stagingaddition");
-
-    /** Staging for removal folder. */
-    static final File STAGINGREMOVAL = Utils.join(GITLET, "stagingremoval");
-
     /** Commits folder. */
     static final File COMMITS = Utils.join(GITLET, "commits");
 
     /** Blobs folder. */
     static final File BLOBS = Utils.join(GITLET, "blobs");
 
+    /** Trees folder. */
+    static final File TREES = Utils.join(GITLET, "trees");
+
     /** Branches folder. */
     static final File BRANCHES = Utils.join(GITLET, "branches");
 
@@ -49,147 +48,108 @@ public class Repository implements Serializable {
     /** Head commit file. */
     static final File HEAD = Utils.join(GITLET, "head");
 
+    /** Largest number of threads add hashes and stores files on. */
+    static final int ADD_THREADS = Integer.getInteger("gitlet.add.threads",
+            Runtime.getRuntime().availableProcessors());
+
     /** Creates a repository object. */
     public Repository() {
     }
 
-    /** Saves COMMIT to the repo. */
+    /** Saves COMMIT to the repo, giving it its id. */
     private static void saveCommit(Commit commit) throws IOException {
-        byte[] commitSerialized = Utils.serialize(commit);
-        String commitSHA = getCommitSHA(commit);
+        byte[] commitEncoded = CommitCodec.encode(commit);
+        String commitSHA = Utils.sha1(commitEncoded);
+        commit.setId(commitSHA);
 
-        File commitFile = Utils.join(COMMITS, commitSHA);
-        commitFile.createNewFile();
-        Utils.writeContents(commitFile, commitSerialized);
+        File commitFile =
+                ObjectStore.newLooseFile(ObjectStore.COMMIT, commitSHA);
+        Journal.writeObject(commitFile, commitEncoded);
+        CommitCache.put(commit, commitEncoded.length);
+        CommitGraph.add(commitSHA);
     }
 
     /** Returns the commit with COMMITSHA. */
     private static Commit getCommit(String commitSHA) {
-        File commitFile = Utils.join(COMMITS, commitSHA);
-        Commit commit = Utils.readObject(commitFile, Commit.class);
-        return commit;
-    }
-
-    /** Returns the parent commit of COMMIT. */
-    private static Commit getParentCommit(Commit commit) {
-        String parentCommitSHA = commit.parent();
-        if (parentCommitSHA == null) {
-            return null;
-        } else {
-            File parentCommitFile = Utils.join(COMMITS, parentCommitSHA);
-            Commit parentCommit = Utils.readObject(parentCommitFile,
-                    Commit.class);
-            return parentCommit;
-        }
+        return CommitCache.get(commitSHA);
     }
 
     /** Returns the head commit. */
     private static Commit getHeadCommit() {
-        String headCommitSHA = Utils.readContentsAsString(HEAD);
+        String headCommitSHA = Journal.readRef(HEAD);
         return getCommit(headCommitSHA);
     }
 
-    /** Returns the commitSHA of COMMIT. */
+    /** Returns the commitSHA of COMMIT, which must have been saved or
+     *  read from the repo. */
     private static String getCommitSHA(Commit commit) {
-        byte[] commitSerialized = Utils.serialize(commit);
-        String commitSHA = Utils.sha1(commitSerialized);
-        return commitSHA;
+        return commit.id();
     }
 
     /** Moves the current branch pointer to the COMMIT. */
     private static void updateCurrentBranch(Commit commit) throws IOException {
-        String commitSHA = getCommitSHA(commit);
-
-        String currentBranch = Utils.readContentsAsString(CURRENTBRANCH);
-        File currentBranchFile = Utils.join(BRANCHES, currentBranch);
-        Utils.writeContents(currentBranchFile, commitSHA);
+        updateCurrentBranch(getCommitSHA(commit));
     }
 
     /** Moves the current branch pointer to the commit with COMMITSHA. */
     private static void updateCurrentBranch(String commitSHA)
             throws IOException {
-        Commit commit = getCommit(commitSHA);
-        updateCurrentBranch(commit);
+        String currentBranch = Journal.readRef(CURRENTBRANCH);
+        File currentBranchFile = Utils.join(BRANCHES, currentBranch);
+        Journal.writeRef(currentBranchFile, commitSHA);
     }
 
     /** Returns the current branch's name. */
     private static String getCurrentBranch() {
-        String currentBranch = Utils.readContentsAsString(CURRENTBRANCH);
+        String currentBranch = Journal.readRef(CURRENTBRANCH);
         return currentBranch;
     }
 
     /** Moves head commit pointer to the SHA of COMMIT. */
     private static void updateHead(Commit commit) {
         String commitSHA = getCommitSHA(commit);
-        Utils.writeContents(HEAD, commitSHA);
-    }
-
-    /** Displays relevant info of COMMIT. */
-    private static void displayCommitInfo(Commit commit) {
-        System.out.println("===");
-        String commitSHA = getCommitSHA(commit);
-        System.out.println("commit " + commitSHA);
-        if (commit.parent2() != null) {
-            String parent1Abbreviated = commit.parent().substring(0, 7);
-            String parent2Abbreviated = commit.parent2().substring(0, 7);
-            System.out.println("Merge: "
-                    + parent1Abbreviated + " " + parent2Abbreviated);
-        }
-        System.out.println("Date: " + commit.timestamp());
-        System.out.println(commit.message());
+        Journal.writeRef(HEAD, commitSHA);
     }
 
     /** Clears the staging area. */
     private static void clearStagingArea() {
-        for (File file : STAGINGADDITION.listFiles()) {
-            file.delete();
-        }
-        for (File file : STAGINGREMOVAL.listFiles()) {
-            file.delete();
-        }
+        StagingArea.clear();
     }
 
     /** Returns the blob contents of the file with FILENAME in COMMIT. */
     private static byte[] getBlobContents(String fileName, Commit commit) {
-        String fileInCommitSHA = commit.blobs().get(fileName);
-        File fileInCommitBlobFile = Utils.join(BLOBS, fileInCommitSHA);
-        byte[] fileInHeadCommitContents
-                = Utils.readContents(fileInCommitBlobFile);
-        return fileInHeadCommitContents;
+        String fileInCommitSHA = commit.blob(fileName);
+        return BlobStore.read(fileInCommitSHA);
     }
 
     /** Writes CONTENTS to the file in the working directory with FILENAME. */
     private static void writeToFileInCWD(String fileName, byte[] contents)
             throws IOException {
-        File fileInCWD = new File(fileName);
-        fileInCWD.createNewFile();
-        Utils.writeContents(fileInCWD, contents);
+        WorkingTree.write(fileName, contents);
     }
 
     /** Returns the head commit of BRANCH. */
     private static Commit getBranchHeadCommit(String branch) {
         File branchFile = Utils.join(BRANCHES, branch);
-        String branchHeadCommitSHA = Utils.readContentsAsString(branchFile);
+        String branchHeadCommitSHA = Journal.readRef(branchFile);
         Commit branchHeadCommit = getCommit(branchHeadCommitSHA);
         return branchHeadCommit;
     }
 
     /** Returns SHA of the working file with name FILENAME. */
     private static String getCWDFileSHA(String fileName) {
-        File cwdFile = new File(fileName);
-        byte[] cwdFileContents = Utils.readContents(cwdFile);
-        String cwdFileSHA = Utils.sha1(cwdFileContents);
-        return cwdFileSHA;
+        return StatIndex.sha(fileName);
     }
 
     /** Returns true if checking out to COMMIT would overwrite files in the
      * current working directory, else false. */
     private static boolean wouldOverwriteCWDFiles(Commit commit) {
-        List<String> cwdFileList = Utils.plainFilenamesIn(CWD);
+        List<String> cwdFileList = WorkingTree.files();
+        Commit headCommit = getHeadCommit();
 
         for (String cwdFileName : cwdFileList) {
             String cwdFileSHA = getCWDFileSHA(cwdFileName);
-            if (!getHeadCommit().blobs().containsKey(cwdFileName)
+            if (!headCommit.blobs().containsKey(cwdFileName)
                     && commit.blobs().containsKey(cwdFileName)
                     && !commit.blobs().get(cwdFileName).equals(cwdFileSHA)) {
                 return true;
@@ -202,63 +162,56 @@ public class Repository implements Serializable {
     /** Initializes a gitlet repository in the current working directory. */
     public static void init() throws IOException {
         GITLET.mkdir();
-        STAGINGADDITION.mkdir();
-        STAGINGREMOVAL.mkdir();
         COMMITS.mkdir();
         BLOBS.mkdir();
+        TREES.mkdir();
         BRANCHES.mkdir();
-        CURRENTBRANCH.createNewFile();
-        HEAD.createNewFile();
 
         Commit initialCommit = new Commit();
-        byte[] initialCommitSerialized = Utils.serialize(initialCommit);
-        String initialCommitSHA = getCommitSHA(initialCommit);
-
-        File initialCommitFile = Utils.join(COMMITS, initialCommitSHA);
-        initialCommitFile.createNewFile();
-        Utils.writeContents(initialCommitFile, initialCommitSerialized);
+        saveCommit(initialCommit);
+        String initialCommitSHA = initialCommit.id();
 
         File masterBranchFile = Utils.join(BRANCHES, "master");
-        masterBranchFile.createNewFile();
-        Utils.writeContents(masterBranchFile, initialCommitSHA);
+        Journal.writeRef(masterBranchFile, initialCommitSHA);
 
-        Utils.writeContents(CURRENTBRANCH, "master");
+        Journal.writeRef(CURRENTBRANCH, "master");
 
-        Utils.writeContents(HEAD, initialCommitSHA);
+        Journal.writeRef(HEAD, initialCommitSHA);
     }
 
-    /** Stages the file with FILENAME and filepath FILETOADD for addition. */
-    public static void add(String fileName, File fileToAdd)
-            throws IOException {
-        byte[] fileContents = Utils.readContents(fileToAdd);
-        String blobSHA = Utils.sha1(fileContents);
+    /** Stages the files with FILENAMES for addition.  The files are hashed
+     *  and stored as blobs on up to ADD_THREADS threads, and then staged
+     *  together. */
+    public static void add(List<String> fileNames) throws IOException {
+        List<String> blobSHAs = Parallel.run(fileNames.size(), ADD_THREADS,
+            i -> storeBlob(fileNames.get(i)));
 
-        File blobFile = Utils.join(BLOBS, blobSHA);
-        blobFile.createNewFile();
-        Utils.writeContents(blobFile, fileContents);
+        Commit headCommit = getHeadCommit();
+        for (int i = 0; i < blobSHAs.size(); i += 1) {
+            String fileName = fileNames.get(i);
+            StagingArea.unstage(fileName);
 
-        File stagingAreaAdditionFile = Utils.join(STAGINGADDITION, fileName);
-        File stagingAreaRemovalFile = Utils.join(STAGINGREMOVAL, fileName);
+            String headCommitFileBlobSHA = headCommit.blob(fileName);
 
-        if (stagingAreaAdditionFile.exists()) {
-            stagingAreaAdditionFile.delete();
-        }
-        if (stagingAreaRemovalFile.exists()) {
-            stagingAreaRemovalFile.delete();
+            if (!blobSHAs.get(i).equals(headCommitFileBlobSHA)) {
+                StagingArea.stageAddition(fileName, blobSHAs.get(i));
+            }
         }
+    }
 
-        String headCommitFileBlobSHA = getHeadCommit().blobs().get(fileName);
-
-        if (!blobSHA.equals(headCommitFileBlobSHA)) {
-            stagingAreaAdditionFile.createNewFile();
-            Utils.writeContents(stagingAreaAdditionFile, blobSHA);
-        }
+    /** Stores the working file with FILENAME as a blob, if it is not
+     *  stored already, and returns the blob's SHA. */
+    private static String storeBlob(String fileName) throws IOException {
+        String blobSHA = getCWDFileSHA(fileName);
+        BlobStore.add(new File(fileName), blobSHA);
+        return blobSHA;
     }
 
     /** Makes a commit with message COMMITMESSAGE. */
     public static void commit(String commitMessage) throws IOException {
         Commit commit = new Commit(commitMessage);
         saveCommit(commit);
+        MessageIndex.tryUpdate();
         updateCurrentBranch(commit);
         updateHead(commit);
         clearStagingArea();
@@ -270,6 +223,7 @@ public class Repository implements Serializable {
             throws IOException {
         Commit commit = new Commit(parent2, commitMessage);
         saveCommit(commit);
+        MessageIndex.tryUpdate();
         updateCurrentBranch(commit);
         updateHead(commit);
         clearStagingArea();
@@ -277,64 +231,53 @@ public class Repository implements Serializable {
 
     /** Removes the file with FILENAME. */
     public static void rm(String fileName) throws IOException {
-        File fileToRemoveInStagingAddition
-                = Utils.join(STAGINGADDITION, fileName);
-        if (fileToRemoveInStagingAddition.exists()) {
-            fileToRemoveInStagingAddition.delete();
-        }
+        StagingArea.unstage(fileName);
 
-        if (getHeadCommit().blobs().containsKey(fileName)) {
-            File fileToRemoveInStagingRemoval
-                    = Utils.join(STAGINGREMOVAL, fileName);
-            fileToRemoveInStagingRemoval.createNewFile();
+        if (getHeadCommit().blob(fileName) != null) {
+            StagingArea.stageRemoval(fileName);
 
-            Utils.restrictedDelete(fileName);
+            WorkingTree.delete(fileName);
         }
     }
 
-    /** Prints the log. */
-    public static void log() {
-        Commit currentCommit = getHeadCommit();
-        while (true) {
-            displayCommitInfo(currentCommit);
-
-            System.out.println();
-
-            if (currentCommit.parent() == null) {
-                return;
-            }
-
-            currentCommit = getParentCommit(currentCommit);
-        }
+    /** Writes the history of the head commit, following first parents, to
+     *  HISTORY. */
+    public static void log(HistoryWriter history) {
+        String headCommitSHA = Journal.readRef(HEAD);
+        int head = CommitGraph.ensure(headCommitSHA);
+        history.writeAll(CommitGraph.firstParents(head), true);
     }
 
-    /** Prints the global log. */
-    public static void globalLog() {
-        List<String> commitList = Utils.plainFilenamesIn(COMMITS);
-        for (int i = 0; i < commitList.size(); i += 1) {
-            String commitSHA = commitList.get(i);
-            Commit commit = getCommit(commitSHA);
-            displayCommitInfo(commit);
-            System.out.println();
-        }
+    /** Writes every commit ever made to HISTORY. */
+    public static void globalLog(HistoryWriter history) {
+        List<String> commitList = ObjectStore.ids(ObjectStore.COMMIT);
+        history.writeAll(CommitGraph.positions(commitList), false);
     }
 
     /** Prints the commit SHA(s) with COMMITMESSAGE. */
     public static void find(String commitMessage) {
-        List<String> commitList = Utils.plainFilenamesIn(COMMITS);
-        boolean foundCommit = false;
+        printFound(MessageIndex.exact(commitMessage));
+    }
 
-        for (String commitSHA : commitList) {
-            Commit commit = getCommit(commitSHA);
-            if (commit.message().equals(commitMessage)) {
-                System.out.println(commitSHA);
-                foundCommit = true;
-            }
-        }
+    /** Prints the commit SHA(s) whose messages contain TEXT. */
+    public static void findSubstring(String text) {
+        printFound(MessageIndex.containing(text));
+    }
 
-        if (!foundCommit) {
+    /** Prints the commit SHA(s) whose messages have every word of TEXT. */
+    public static void findTokens(String text) {
+        printFound(MessageIndex.withTokens(text));
+    }
+
+    /** Prints the commit SHAs COMMITLIST, or a message if there are
+     *  none. */
+    private static void printFound(List<String> commitList) {
+        if (commitList.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
+        for (String commitSHA : commitList) {
+            System.out.println(commitSHA);
+        }
     }
 
     /** Prints the status of the repo. */
@@ -351,17 +294,13 @@ public class Repository implements Serializable {
         System.out.println();
 
         System.out.println("=== Staged Files ===");
-        List<String> stagingAdditionList
-                = Utils.plainFilenamesIn(STAGINGADDITION);
-        for (String fileName : stagingAdditionList) {
+        for (String fileName : StagingArea.additions().keySet()) {
             System.out.println(fileName);
         }
         System.out.println();
 
         System.out.println("=== Removed Files ===");
-        List<String> stagingRemovalList
-                = Utils.plainFilenamesIn(STAGINGREMOVAL);
-        for (String fileName : stagingRemovalList) {
+        for (String fileName : StagingArea.removals()) {
             System.out.println(fileName);
         }
         System.out.println();
@@ -377,16 +316,15 @@ public class Repository implements Serializable {
     public static void printModificationsNotStagedForCommit() {
         System.out.println("=== Modifications Not Staged For Commit ===");
         List<String> toPrint = new ArrayList<>();
-
-        for (String fileName : getHeadCommit().blobs().keySet()) {
-            String trackedFileSHA = getHeadCommit().blobs().get(fileName);
-            File fileInCWD = new File(fileName);
-            File fileInStagingAddition = Utils.join(STAGINGADDITION, fileName);
-            File fileInStagingRemoval = Utils.join(STAGINGREMOVAL, fileName);
-
-            if (fileInCWD.exists()
-                    && !fileInStagingAddition.exists()
-                    && !fileInStagingRemoval.exists()) {
+        Commit headCommit = getHeadCommit();
+        Map<String, String> additions = StagingArea.additions();
+        Set<String> removals = StagingArea.removals();
+
+        for (String fileName : headCommit.blobs().keySet()) {
+            String trackedFileSHA = headCommit.blobs().get(fileName);
+            if (WorkingTree.exists(fileName)
+                    && !additions.containsKey(fileName)
+                    && !removals.contains(fileName)) {
                 String fileInCWDSHA = getCWDFileSHA(fileName);
                 if (!fileInCWDSHA.equals(trackedFileSHA)) {
                     toPrint.add(fileName + " (modified)");
@@ -394,11 +332,10 @@ public class Repository implements Serializable {
             }
         }
 
-        for (File file : STAGINGADDITION.listFiles()) {
-            String fileName = file.getName();
-            String fileInStagingAdditionSHA = Utils.readContentsAsString(file);
-            File fileInCWD = new File(fileName);
-            if (fileInCWD.exists()) {
+        for (Map.Entry<String, String> entry : additions.entrySet()) {
+            String fileName = entry.getKey();
+            String fileInStagingAdditionSHA = entry.getValue();
+            if (WorkingTree.exists(fileName)) {
                 String fileInCWDSHA = getCWDFileSHA(fileName);
                 if (!fileInCWDSHA.equals(fileInStagingAdditionSHA)) {
                     toPrint.add(fileName + " (modified)");
@@ -406,18 +343,14 @@ public class Repository implements Serializable {
             }
         }
 
-        for (File file : STAGINGADDITION.listFiles()) {
-            String fileName = file.getName();
-            File fileInCWD = new File(fileName);
-            if (!fileInCWD.exists()) {
+        for (String fileName : additions.keySet()) {
+            if (!WorkingTree.exists(fileName)) {
                 toPrint.add(fileName + " (deleted)");
             }
         }
 
-        for (String fileName : getHeadCommit().blobs().keySet()) {
-            File fileInCWD = new File(fileName);
-            File fileInStagingRemoval = Utils.join(STAGINGREMOVAL, fileName);
-            if (!fileInCWD.exists() && !fileInStagingRemoval.exists()) {
+        for (String fileName : headCommit.blobs().keySet()) {
+            if (!WorkingTree.exists(fileName) && !removals.contains(fileName)) {
                 toPrint.add(fileName + " (deleted)");
             }
         }
@@ -432,11 +365,12 @@ public class Repository implements Serializable {
     public static void printUntrackedFiles() {
         System.out.println("=== Untracked Files ===");
 
-        List<String> cwdList = Utils.plainFilenamesIn(CWD);
+        List<String> cwdList = WorkingTree.files();
+        Commit headCommit = getHeadCommit();
+        Map<String, String> additions = StagingArea.additions();
         for (String fileName : cwdList) {
-            File fileInStagingAddition = Utils.join(STAGINGADDITION, fileName);
-            if (!fileInStagingAddition.exists()
-                    && !getHeadCommit().blobs().containsKey(fileName)) {
+            if (!additions.containsKey(fileName)
+                    && !headCommit.blobs().containsKey(fileName)) {
                 System.out.println(fileName);
             }
         }
@@ -460,35 +394,24 @@ public class Repository implements Serializable {
     /** Checkout #3, for branch with name BRANCH. */
     public static void checkout3(String branch) throws IOException {
         Commit branchHeadCommit = getBranchHeadCommit(branch);
-        for (String fileName : branchHeadCommit.blobs().keySet()) {
-            byte[] fileInBranchHeadCommitContents
-                    = getBlobContents(fileName, branchHeadCommit);
-            writeToFileInCWD(fileName, fileInBranchHeadCommitContents);
-        }
-
-        for (String fileName : getHeadCommit().blobs().keySet()) {
-            if (!branchHeadCommit.blobs().containsKey(fileName)) {
-                Utils.restrictedDelete(fileName);
-            }
-        }
+        Checkout.apply(getHeadCommit(), branchHeadCommit);
 
         clearStagingArea();
 
-        Utils.writeContents(CURRENTBRANCH, branch);
-        Utils.writeContents(HEAD, getCommitSHA(branchHeadCommit));
+        Journal.writeRef(CURRENTBRANCH, branch);
+        Journal.writeRef(HEAD, getCommitSHA(branchHeadCommit));
     }
 
     /** Creates new branch with name BRANCH. */
     public static void branch(String branch) throws IOException {
         File branchFile = Utils.join(BRANCHES, branch);
-        branchFile.createNewFile();
-        Utils.writeContents(branchFile, getCommitSHA(getHeadCommit()));
+        Journal.writeRef(branchFile, getCommitSHA(getHeadCommit()));
     }
 
     /** Removes branch with name BRANCH. */
     public static void rmBranch(String branch) throws IOException {
         File branchFile = Utils.join(BRANCHES, branch);
-        branchFile.delete();
+        Journal.deleteRef(branchFile);
     }
 
     /** Resets repo to commit with SHA COMMITSHA. */
@@ -497,286 +420,110 @@ public class Repository implements Serializable {
         checkout3(getCurrentBranch());
     }
 
+    /** Moves all loose objects into a new pack. */
+    public static void pack() throws IOException {
+        int packed = ObjectStore.pack();
+        System.out.println("Packed " + packed + " objects.");
+    }
+
+    /** Moves loose objects stored in the old flat layout into their
+     * shard folders. */
+    public static void migrateObjects() throws IOException {
+        int moved = ObjectStore.migrate();
+        System.out.println("Moved " + moved + " objects.");
+    }
+
     /** Merges current branch with BRANCH. */
     public static void merge(String branch) throws IOException {
-        Commit splitPointCommit = findSplitPoint(branch);
         Commit givenBranchHeadCommit = getBranchHeadCommit(branch);
         Commit currentBranchHeadCommit = getHeadCommit();
+        Commit splitPointCommit = MergeBase.find(currentBranchHeadCommit,
+                givenBranchHeadCommit);
+        String splitPointSHA = getCommitSHA(splitPointCommit);
 
         if (wouldOverwriteCWDFiles(givenBranchHeadCommit)) {
             System.out.println("There is an untracked file in the way; "
                     + "delete it, or add and commit it first.");
             return;
-        } else if (splitPointCommit.equals(givenBranchHeadCommit)) {
+        } else if (splitPointSHA.equals(getCommitSHA(givenBranchHeadCommit))) {
             System.out.println("Given branch is an ancestor of "
                     + "the current branch.");
             return;
-        } else if (splitPointCommit.equals(currentBranchHeadCommit)) {
+        } else if (splitPointSHA.equals(
+                getCommitSHA(currentBranchHeadCommit))) {
             checkout3(branch);
             System.out.println("Current branch fast-forwarded.");
             return;
         }
 
-        mergeHelper1(branch);
-        mergeHelper2(branch);
-        mergeHelper3(branch);
+        TreeMap<String, MergePlanner.Action> plan =
+                MergePlanner.plan(splitPointCommit, currentBranchHeadCommit,
+                        givenBranchHeadCommit);
+        boolean isConflict = applyMergePlan(plan, currentBranchHeadCommit,
+                givenBranchHeadCommit);
 
-        boolean isConflict1 = mergeHelper4(branch);
-        boolean isConflict2 = mergeHelper5(branch);
-        boolean isConflict3 = mergeHelper6(branch);
-        boolean isConflict4 = mergeHelper7(branch);
-
-        if (!splitPointCommit.equals(currentBranchHeadCommit)
-                && !splitPointCommit.equals(givenBranchHeadCommit)) {
-            mergeCommit(getCommitSHA(givenBranchHeadCommit),
-                    "Merged "
-                            + branch + " into " + getCurrentBranch() + ".");
-        }
+        mergeCommit(getCommitSHA(givenBranchHeadCommit),
+                "Merged " + branch + " into " + getCurrentBranch() + ".");
 
-        if (isConflict1 || isConflict2 || isConflict3 || isConflict4) {
+        if (isConflict) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
-    /** Merge helper 1 with branch BRANCH. */
-    private static void mergeHelper1(String branch) throws IOException {
-        Commit splitPointCommit = findSplitPoint(branch);
-        Commit givenBranchHeadCommit = getBranchHeadCommit(branch);
-        Commit currentBranchHeadCommit = getHeadCommit();
-
-        for (String fileName : splitPointCommit.blobs().keySet()) {
-            if (currentBranchHeadCommit.blobs().containsKey(fileName)
-                    && givenBranchHeadCommit.blobs().containsKey(fileName)
-                    && !givenBranchHeadCommit.blobs().get(fileName).
-                    equals(splitPointCommit.blobs().get(fileName))
-                    && currentBranchHeadCommit.blobs().get(fileName).
-                    equals(splitPointCommit.blobs().get(fileName))) {
-                checkout2(givenBranchHeadCommit, fileName);
-                File fileInStagingAdditionFile
-                        = Utils.join(STAGINGADDITION, fileName);
-                fileInStagingAdditionFile.createNewFile();
-                Utils.writeContents(fileInStagingAdditionFile,
-                        givenBranchHeadCommit.blobs().get(fileName));
-            }
-        }
-    }
-
-    /** Merge helper 2 with branch BRANCH. */
-    private static void mergeHelper2(String branch) throws IOException {
-        Commit splitPointCommit = findSplitPoint(branch);
-        Commit givenBranchHeadCommit = getBranchHeadCommit(branch);
-        Commit currentBranchHeadCommit = getHeadCommit();
+    /** Carries out the merge PLAN of the current branch head
+     * CURRENTBRANCHHEADCOMMIT and given branch head GIVENBRANCHHEADCOMMIT.
+     * Returns true if there is a conflict, false otherwise. */
+    private static boolean applyMergePlan(
+            TreeMap<String, MergePlanner.Action> plan,
+            Commit currentBranchHeadCommit, Commit givenBranchHeadCommit)
+            throws IOException {
+        boolean isConflict = false;
 
-        for (String fileName : givenBranchHeadCommit.blobs().keySet()) {
-            if (!splitPointCommit.blobs().containsKey(fileName)
-                    && !currentBranchHeadCommit.blobs().
-                    containsKey(fileName)) {
+        for (Map.Entry<String, MergePlanner.Action> entry : plan.entrySet()) {
+            String fileName = entry.getKey();
+            switch (entry.getValue()) {
+            case TAKE_GIVEN:
                 checkout2(givenBranchHeadCommit, fileName);
-                File fileInStagingAdditionFile
-                        = Utils.join(STAGINGADDITION, fileName);
-                fileInStagingAdditionFile.createNewFile();
-                Utils.writeContents(fileInStagingAdditionFile,
+                StagingArea.stageAddition(fileName,
                         givenBranchHeadCommit.blobs().get(fileName));
-            }
-        }
-    }
-
-    /** Merge helper 3 with branch BRANCH. */
-    private static void mergeHelper3(String branch) throws IOException {
-        Commit splitPointCommit = findSplitPoint(branch);
-        Commit givenBranchHeadCommit = getBranchHeadCommit(branch);
-        Commit currentBranchHeadCommit = getHeadCommit();
-
-        for (String fileName : splitPointCommit.blobs().keySet()) {
-            if (currentBranchHeadCommit.blobs().containsKey(fileName)
-                    && currentBranchHeadCommit.blobs().get(fileName).
-                    equals(splitPointCommit.blobs().get(fileName))
-                    && givenBranchHeadCommit.blobs().containsKey(fileName)) {
+                break;
+            case REMOVE:
                 rm(fileName);
-            }
-        }
-    }
-
-    /** Merge helper 4 with branch BRANCH. Returns true is there
-     * is a conflict, false otherwise. */
-    private static boolean mergeHelper4(String branch) {
-        Commit splitPointCommit = findSplitPoint(branch);
-        Commit givenBranchHeadCommit = getBranchHeadCommit(branch);
-        Commit currentBranchHeadCommit = getHeadCommit();
-
-        boolean isConflict = false;
-
-        for (String fileName : splitPointCommit.blobs().keySet()) {
-            if (currentBranchHeadCommit.blobs().containsKey(fileName)
-                    && !currentBranchHeadCommit.blobs().get(fileName).
-                    equals(splitPointCommit.blobs().get(fileName))
-                    && givenBranchHeadCommit.blobs().containsKey(fileName)
-                    && !givenBranchHeadCommit.blobs().get(fileName).
-                    equals(splitPointCommit.blobs().get(fileName))
-                    && !currentBranchHeadCommit.blobs().get(fileName).
-                    equals(givenBranchHeadCommit.blobs().get(fileName))) {
-                isConflict = true;
-
-                File currentBranchFileContentsFile
-                        = Utils.join(BLOBS,
-                        currentBranchHeadCommit.blobs().get(fileName));
-                byte[] currentBranchFileContents
-                        = Utils.readContents(currentBranchFileContentsFile);
-
-                File givenBranchFileContentsFile
-                        = Utils.join(BLOBS,
-                        givenBranchHeadCommit.blobs().get(fileName));
-                byte[] givenBranchFileContents
-                        = Utils.readContents(givenBranchFileContentsFile);
-
-                File fileInCWD = new File(fileName);
-                Utils.writeContents(fileInCWD, "<<<<<<< HEAD\n",
-                        currentBranchFileContents,
-                        "=======\n",
-                        givenBranchFileContents,
-                        ">>>>>>>\n");
-            }
-        }
-        return isConflict;
-    }
-
-    /** Merge helper 5 with branch BRANCH. Returns true if
-     * there is a conflict, false otherwise. */
-    private static boolean mergeHelper5(String branch) {
-        Commit splitPointCommit = findSplitPoint(branch);
-        Commit givenBranchHeadCommit = getBranchHeadCommit(branch);
-        Commit currentBranchHeadCommit = getHeadCommit();
-
-        boolean isConflict = false;
-
-        for (String fileName : splitPointCommit.blobs().keySet()) {
-            if (currentBranchHeadCommit.blobs().containsKey(fileName)
-                    && !currentBranchHeadCommit.blobs().get(fileName).
-                    equals(splitPointCommit.blobs().get(fileName))
-                    && !givenBranchHeadCommit.blobs().containsKey(fileName)) {
-
+                break;
+            case CONFLICT:
                 isConflict = true;
-
-                File currentBranchFileContentsFile
-                        = Utils.join(BLOBS,
-                        currentBranchHeadCommit.blobs().get(fileName));
-                byte[] currentBranchFileContents
-                        = Utils.readContents(currentBranchFileContentsFile);
-
-                File fileInCWD = new File(fileName);
-                Utils.writeContents(fileInCWD, "<<<<<<< HEAD\n",
-                        currentBranchFileContents,
-                        "=======\n",
-                        ">>>>>>>\n");
-            }
-        }
-        return isConflict;
-    }
-
-    /** Merge helper 6 with branch BRANCH. Returns true
-     * if there is a conflict, false otherwise. */
-    private static boolean mergeHelper6(String branch) {
-        Commit splitPointCommit = findSplitPoint(branch);
-        Commit givenBranchHeadCommit = getBranchHeadCommit(branch);
-        Commit currentBranchHeadCommit = getHeadCommit();
-
-        boolean isConflict = false;
-
-        for (String fileName : splitPointCommit.blobs().keySet()) {
-            if (!currentBranchHeadCommit.blobs().containsKey(fileName)
-                    && givenBranchHeadCommit.blobs().containsKey(fileName)
-                    && !givenBranchHeadCommit.blobs().get(fileName).
-                    equals(splitPointCommit.blobs().get(fileName))) {
-                isConflict = true;
-
-                File givenBranchFileContentsFile
-                        = Utils.join(BLOBS,
-                        givenBranchHeadCommit.blobs().get(fileName));
-                byte[] givenBranchFileContents
-                        = Utils.readContents(givenBranchFileContentsFile);
-
-                File fileInCWD = new File(fileName);
-                Utils.writeContents(fileInCWD, "<<<<<<< HEAD\n",
-                        "=======\n",
-                        givenBranchFileContents,
-                        ">>>>>>>\n");
+                writeConflict(fileName, currentBranchHeadCommit,
+                        givenBranchHeadCommit);
+                break;
+            default:
+                break;
             }
         }
         return isConflict;
     }
 
-    /** Merge helper 7 with branch BRANCH. Returns true
-     * is there is a conflict, false otherwise. */
-    private static boolean mergeHelper7(String branch) {
-        Commit splitPointCommit = findSplitPoint(branch);
-        Commit givenBranchHeadCommit = getBranchHeadCommit(branch);
-        Commit currentBranchHeadCommit = getHeadCommit();
-
-        boolean isConflict = false;
-
-        for (String fileName : currentBranchHeadCommit.blobs().keySet()) {
-            if (givenBranchHeadCommit.blobs().containsKey(fileName)
-                    && !splitPointCommit.blobs().containsKey(fileName)
-                    && !currentBranchHeadCommit.blobs().get(fileName).
-                    equals(givenBranchHeadCommit.blobs().get(fileName))) {
-                isConflict = true;
-
-                File currentBranchFileContentsFile
-                        = Utils.join(BLOBS,
-                        currentBranchHeadCommit.blobs().get(fileName));
-                byte[] currentBranchFileContents
-                        = Utils.readContents(currentBranchFileContentsFile);
-
-                File givenBranchFileContentsFile
-                        = Utils.join(BLOBS,
-                        givenBranchHeadCommit.blobs().get(fileName));
-                byte[] givenBranchFileContents
-                        = Utils.readContents(givenBranchFileContentsFile);
-
-                File fileInCWD = new File(fileName);
-                Utils.writeContents(fileInCWD, "<<<<<<< HEAD\n",
-                        currentBranchFileContents,
-                        "=======\n",
-                        givenBranchFileContents,
-                        ">>>>>>>\n");
-            }
+    /** Writes the conflicting versions of the file with FILENAME in the
+     * current branch head CURRENTBRANCHHEADCOMMIT and given branch head
+     * GIVENBRANCHHEADCOMMIT to the working directory. A version missing
+     * from its commit is written as empty. */
+    private static void writeConflict(String fileName,
+            Commit currentBranchHeadCommit, Commit givenBranchHeadCommit) {
+        byte[] currentBranchFileContents = new byte[0];
+        if (currentBranchHeadCommit.blobs().containsKey(fileName)) {
+            currentBranchFileContents
+                    = getBlobContents(fileName, currentBranchHeadCommit);
         }
-        return isConflict;
-    }
 
-    /** Returns the split point commit of the current branch
-     * and given BRANCH. */
-    private static Commit findSplitPoint(String branch) {
-        ArrayList<String> givenBranchParentList = new ArrayList<>();
-        Commit givenBranchCommit = getBranchHeadCommit(branch);
-        ArrayDeque<Commit> givenQueue = new ArrayDeque<>();
-        givenQueue.push(givenBranchCommit);
-        while (!givenQueue.isEmpty()) {
-            Commit commit = givenQueue.remove();
-            givenBranchParentList.add(getCommitSHA(commit));
-            if (commit.parent() != null) {
-                givenQueue.push(getCommit(commit.parent()));
-            }
-            if (commit.parent2() != null) {
-                givenQueue.push(getCommit(commit.parent2()));
-            }
+        byte[] givenBranchFileContents = new byte[0];
+        if (givenBranchHeadCommit.blobs().containsKey(fileName)) {
+            givenBranchFileContents
+                    = getBlobContents(fileName, givenBranchHeadCommit);
         }
 
-        Commit currentBranchCommit = getHeadCommit();
-        ArrayDeque<Commit> currentQueue = new ArrayDeque<>();
-        currentQueue.push(currentBranchCommit);
-        while (!currentQueue.isEmpty()) {
-            Commit commit = currentQueue.remove();
-            if (givenBranchParentList.contains(getCommitSHA(commit))) {
-                return commit;
-            }
-            if (commit.parent() != null) {
-                currentQueue.push(getCommit(commit.parent()));
-            }
-            if (commit.parent2() != null) {
-                currentQueue.push(getCommit(commit.parent2()));
-            }
-        }
-        return null;
+        WorkingTree.write(fileName, "<<<<<<< HEAD\n",
+                currentBranchFileContents,
+                "=======\n",
+                givenBranchFileContents,
+                ">>>>>>>\n");
     }
 }
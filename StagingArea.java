@@ -0,0 +1,221 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Staging area for Gitlet, the tiny stupid ass version-control system.
+ *
+ *  The files staged for addition, with their blobs, and the files staged
+ *  for removal are kept in the single file .gitlet/staging as the magic
+ *  bytes 'g' 'l' 'i' VERSION, the number of additions, each addition's
+ *  file name and 20-byte blob hash, the number of removals and each
+ *  removal's file name.  It is read once per command, changed in memory
+ *  and written back under a temporary name and renamed into place at the
+ *  end of the command, so it is never seen half written.
+ *
+ *  Older versions staged each file as its own file in the stagingaddition
+ *  and stagingremoval folders.  If those are found instead, they are read
+ *  in and removed the next time the staging area is saved.
+ *  @author Song Bai
+ */
+class StagingArea {
+
+    /** .gitlet folder. */
+    static final File GITLET = new File(".gitlet");
+
+    /** Staging area file. */
+    static final File STAGING = Utils.join(GITLET, "staging");
+
+    /** Staging for addition folder of older versions. */
+    static final File STAGINGADDITION = Utils.join(GITLET, "stagingaddition");
+
+    /** Staging for removal folder of older versions. */
+    static final File STAGINGREMOVAL = Utils.join(GITLET, "stagingremoval");
+
+    /** Magic bytes of the staging area file. */
+    private static final byte[] MAGIC = { 'g', 'l', 'i', 1 };
+
+    /** Files staged for addition and their blob hashes, or null before
+     *  the staging area is loaded. */
+    private static TreeMap<String, String> _additions;
+
+    /** Files staged for removal. */
+    private static TreeSet<String> _removals;
+
+    /** True if the staging area has changed since it was loaded. */
+    private static boolean _dirty;
+
+    /** Returns the files staged for addition and their blob hashes. */
+    static synchronized SortedMap<String, String> additions() {
+        load();
+        return Collections.unmodifiableSortedMap(_additions);
+    }
+
+    /** Returns the files staged for removal. */
+    static synchronized SortedSet<String> removals() {
+        load();
+        return Collections.unmodifiableSortedSet(_removals);
+    }
+
+    /** Returns true if nothing is staged. */
+    static synchronized boolean isEmpty() {
+        load();
+        return _additions.isEmpty() && _removals.isEmpty();
+    }
+
+    /** Stages the file with FILENAME for addition as the blob with
+     *  BLOBSHA. */
+    static synchronized void stageAddition(String fileName, String blobSHA) {
+        load();
+        _removals.remove(fileName);
+        _additions.put(fileName, blobSHA);
+        _dirty = true;
+    }
+
+    /** Stages the file with FILENAME for removal. */
+    static synchronized void stageRemoval(String fileName) {
+        load();
+        _additions.remove(fileName);
+        _removals.add(fileName);
+        _dirty = true;
+    }
+
+    /** Unstages the file with FILENAME. */
+    static synchronized void unstage(String fileName) {
+        load();
+        if (_additions.containsKey(fileName)
+                || _removals.contains(fileName)) {
+            _additions.remove(fileName);
+            _removals.remove(fileName);
+            _dirty = true;
+        }
+    }
+
+    /** Unstages everything. */
+    static synchronized void clear() {
+        load();
+        if (!isEmpty()) {
+            _additions.clear();
+            _removals.clear();
+            _dirty = true;
+        }
+    }
+
+    /** Forgets the staging area read, so that it is read again on next
+     *  use.  Any changes not saved are lost. */
+    static synchronized void reset() {
+        _additions = null;
+        _removals = null;
+        _dirty = false;
+    }
+
+    /** Writes the staging area back to disk if it has changed. */
+    static synchronized void save() throws IOException {
+        if (!_dirty || !GITLET.isDirectory()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeInt(_additions.size());
+            for (Map.Entry<String, String> entry : _additions.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.write(HexFormat.of().parseHex(entry.getValue()));
+            }
+            out.writeInt(_removals.size());
+            for (String fileName : _removals) {
+                out.writeUTF(fileName);
+            }
+        }
+        Journal.writeRef(STAGING, bytes.toByteArray());
+        Journal.commit();
+        _dirty = false;
+        deleteFolder(STAGINGADDITION);
+        deleteFolder(STAGINGREMOVAL);
+    }
+
+    /** Reads the staging area from disk if it has not been read yet. */
+    private static void load() {
+        if (_additions != null) {
+            return;
+        }
+        _additions = new TreeMap<>();
+        _removals = new TreeSet<>();
+        if (!STAGING.isFile() && (STAGINGADDITION.isDirectory()
+                || STAGINGREMOVAL.isDirectory())) {
+            RepoLock.upgrade();
+        }
+        if (STAGING.isFile()) {
+            read();
+        } else if (STAGINGADDITION.isDirectory()
+                || STAGINGREMOVAL.isDirectory()) {
+            readFolders();
+        }
+    }
+
+    /** Reads the staging area file. */
+    private static void read() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(STAGING.toPath())))) {
+            byte[] magic = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw Utils.error("Bad staging area %s.", STAGING);
+            }
+            int additions = in.readInt();
+            for (int i = 0; i < additions; i += 1) {
+                String fileName = in.readUTF();
+                byte[] blobSHA = in.readNBytes(Utils.UID_LENGTH / 2);
+                _additions.put(fileName, HexFormat.of().formatHex(blobSHA));
+            }
+            int removals = in.readInt();
+            for (int i = 0; i < removals; i += 1) {
+                _removals.add(in.readUTF());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads the staging folders of older versions. */
+    private static void readFolders() {
+        List<String> additions = Utils.plainFilenamesIn(STAGINGADDITION);
+        if (additions != null) {
+            for (String fileName : additions) {
+                _additions.put(fileName, Utils.readContentsAsString(
+                        Utils.join(STAGINGADDITION, fileName)));
+            }
+        }
+        List<String> removals = Utils.plainFilenamesIn(STAGINGREMOVAL);
+        if (removals != null) {
+            _removals.addAll(removals);
+        }
+        _dirty = true;
+    }
+
+    /** Deletes the staging folder DIR of older versions and its files, if
+     *  it exists. */
+    private static void deleteFolder(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,266 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Cache of working file hashes for Gitlet, the tiny stupid ass
+ *  version-control system.
+ *
+ *  For every working file whose contents have been hashed, the stat index
+ *  remembers its size, modification time and file key (the inode, where
+ *  the file system has one) along with the hash.  As long as all three
+ *  still match, the file is assumed unchanged and is not read again.
+ *
+ *  A file modified within the same clock tick as the index was written
+ *  could change again without its modification time moving, so an entry
+ *  whose modification time is not older than the index file itself is
+ *  "racy" and is rehashed, unless it was hashed by the current command.
+ *  The index is kept in .gitlet/statindex
+ *  as the magic bytes 'g' 'l' 's' VERSION, an entry count and then each
+ *  entry's path, size, modification time in nanoseconds, file key and
+ *  20-byte hash.
+ *  @author Song Bai
+ */
+class StatIndex {
+
+    /** .gitlet folder. */
+    static final File GITLET = new File(".gitlet");
+
+    /** Stat index file. */
+    static final File STATINDEX = Utils.join(GITLET, "statindex");
+
+    /** Magic bytes of the stat index file. */
+    private static final byte[] MAGIC = { 'g', 'l', 's', 1 };
+
+    /** Cached entries by path, or null before they are loaded. */
+    private static HashMap<String, Entry> _entries;
+
+    /** Modification time of the stat index file when it was loaded, in
+     *  nanoseconds. */
+    private static long _indexTime;
+
+    /** True if _entries has changed since it was loaded. */
+    private static boolean _dirty;
+
+    /** Number of lookups answered from a cached entry. */
+    private static long _hits;
+
+    /** Number of lookups that had to hash the file. */
+    private static long _misses;
+
+    /** Returns the SHA-1 hash of the contents of the working file with
+     *  FILENAME, hashing it only if it may have changed since it was last
+     *  hashed.  Files are hashed outside the lock, so several threads may
+     *  hash different files at once. */
+    static String sha(String fileName) {
+        String known = WorkTreeMonitor.sha(fileName);
+        if (known != null) {
+            return known;
+        }
+        String result = statSha(fileName);
+        WorkTreeMonitor.record(fileName, result);
+        return result;
+    }
+
+    /** Returns the SHA of the working file with FILENAME, found through
+     *  the index if its stat data still matches. */
+    private static String statSha(String fileName) {
+        File file = new File(fileName);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            long size = attrs.size();
+            long mtime = nanos(attrs.lastModifiedTime());
+            String key = String.valueOf(attrs.fileKey());
+
+            String cached = lookup(fileName, size, mtime, key);
+            if (cached != null) {
+                return cached;
+            }
+            String sha = BlobStore.hash(file);
+            record(fileName, new Entry(size, mtime, key, sha));
+            return sha;
+        } catch (NoSuchFileException excp) {
+            forget(fileName);
+            throw new IllegalArgumentException("must be a normal file");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Records that the working file with FILENAME, just written, hashes
+     *  to SHA, so that it need not be read to find out. */
+    static void remember(String fileName, String sha) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(
+                    new File(fileName).toPath(), BasicFileAttributes.class);
+            record(fileName, new Entry(attrs.size(),
+                    nanos(attrs.lastModifiedTime()),
+                    String.valueOf(attrs.fileKey()), sha));
+            WorkTreeMonitor.record(fileName, sha);
+        } catch (IOException excp) {
+            forget(fileName);
+        }
+    }
+
+    /** Returns the cached hash of the file with FILENAME if it is still
+     *  SIZE bytes long with modification time MTIME and file key KEY and
+     *  is not racy, else null. */
+    private static synchronized String lookup(String fileName, long size,
+                                              long mtime, String key) {
+        load();
+        Entry entry = _entries.get(fileName);
+        if (entry != null && entry._size == size && entry._mtime == mtime
+                && entry._key.equals(key)
+                && (entry._hashedNow || mtime < _indexTime)) {
+            _hits += 1;
+            return entry._sha;
+        }
+        _misses += 1;
+        return null;
+    }
+
+    /** Records ENTRY, just hashed, for the file with FILENAME. */
+    private static synchronized void record(String fileName, Entry entry) {
+        load();
+        entry._hashedNow = true;
+        _entries.put(fileName, entry);
+        _dirty = true;
+    }
+
+    /** Drops any entry for the file with FILENAME. */
+    private static synchronized void forget(String fileName) {
+        load();
+        if (_entries.remove(fileName) != null) {
+            _dirty = true;
+        }
+    }
+
+    /** Writes the index back to disk if it has changed, which ends the
+     *  current command's trust in the files it hashed.  The new index is
+     *  written under a temporary name and renamed into place. */
+    static synchronized void save() throws IOException {
+        if (!_dirty || !GITLET.isDirectory()) {
+            return;
+        }
+        File tempFile = File.createTempFile("statindex", ".tmp", GITLET);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                        Files.newOutputStream(tempFile.toPath())))) {
+                out.write(MAGIC);
+                out.writeInt(_entries.size());
+                for (Map.Entry<String, Entry> item : _entries.entrySet()) {
+                    Entry entry = item.getValue();
+                    out.writeUTF(item.getKey());
+                    out.writeLong(entry._size);
+                    out.writeLong(entry._mtime);
+                    out.writeUTF(entry._key);
+                    out.write(HexFormat.of().parseHex(entry._sha));
+                }
+            }
+            Files.move(tempFile.toPath(), STATINDEX.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            _indexTime = nanos(Files.getLastModifiedTime(STATINDEX.toPath()));
+            for (Entry entry : _entries.values()) {
+                entry._hashedNow = false;
+            }
+            _dirty = false;
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /** Forgets the index read, so that it is read again on next use.  Any
+     *  changes not saved are lost. */
+    static synchronized void reset() {
+        _entries = null;
+        _dirty = false;
+    }
+
+    /** Returns a one-line summary of index activity. */
+    static synchronized String stats() {
+        return String.format("stat index: %d unchanged, %d hashed",
+                _hits, _misses);
+    }
+
+    /** Reads the index from disk if it has not been read yet.  A missing
+     *  or unreadable index is treated as empty. */
+    private static void load() {
+        if (_entries != null) {
+            return;
+        }
+        _entries = new HashMap<>();
+        if (!STATINDEX.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(STATINDEX.toPath())))) {
+            _indexTime = nanos(Files.getLastModifiedTime(STATINDEX.toPath()));
+            byte[] magic = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC)) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                String fileName = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                String key = in.readUTF();
+                byte[] sha = in.readNBytes(Utils.UID_LENGTH / 2);
+                _entries.put(fileName, new Entry(size, mtime, key,
+                        HexFormat.of().formatHex(sha)));
+            }
+        } catch (IOException excp) {
+            _entries.clear();
+        }
+    }
+
+    /** Returns TIME in nanoseconds since the epoch. */
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** What the index knows about one working file. */
+    private static class Entry {
+
+        /** Size of the file in bytes. */
+        private final long _size;
+
+        /** Modification time of the file in nanoseconds. */
+        private final long _mtime;
+
+        /** File key of the file, such as its inode. */
+        private final String _key;
+
+        /** SHA-1 hash of the file's contents. */
+        private final String _sha;
+
+        /** True if the file was hashed by the current command. */
+        private boolean _hashedNow;
+
+        /** An entry for a file of SIZE bytes last modified at MTIME with
+         *  file key KEY whose contents hash to SHA. */
+        Entry(long size, long mtime, String key, String sha) {
+            _size = size;
+            _mtime = mtime;
+            _key = key;
+            _sha = sha;
+        }
+    }
+}
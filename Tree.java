@@ -0,0 +1,484 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** Tree objects for Gitlet, the tiny stupid ass version-control system.
+ *
+ *  A tree lists the contents of one directory: for each entry its type,
+ *  BLOB for a file or TREE for a subdirectory, its name and the id of the
+ *  blob or tree it names.  A tree file is laid out as
+ *
+ *      'g' 'l' 't' ENTRIES
+ *      count                   varint
+ *      count * (type byte, name string, id 20 bytes)
+ *
+ *  with entries sorted by name, strings and varints as in CommitCodec.
+ *  Like blobs, trees are named by the SHA-1 hash of their bytes, so a
+ *  directory whose contents did not change between commits is stored once
+ *  and shared.  Updating a tree rewrites only the trees on the paths to
+ *  the files that changed.  Directories left empty are dropped; the root
+ *  tree may be empty.
+ *
+ *  A directory with more than twice gitlet.tree.pageEntries entries
+ *  (default 256) is split into pages, each stored as a tree of its own,
+ *  and its tree instead lists the pages:
+ *
+ *      'g' 'l' 't' PAGED
+ *      count                   varint
+ *      count * (first name string, page id 20 bytes)
+ *
+ *  A page ends after an entry whose name hashes to a boundary, so where
+ *  pages split depends only on the names around the split.  Adding or
+ *  removing a file in a wide directory therefore rewrites one page and the
+ *  short list of pages, and the other pages are shared with the previous
+ *  version, as is reading one file's entry.
+ *  @author Song Bai
+ */
+class Tree {
+
+    /** Magic bytes at the start of every tree file. */
+    private static final byte[] MAGIC = { 'g', 'l', 't' };
+
+    /** Version byte of a tree listing its entries. */
+    private static final int ENTRIES = 1;
+
+    /** Version byte of a tree listing its pages. */
+    private static final int PAGED = 2;
+
+    /** Average number of entries in a page, a power of two. */
+    private static final int PAGE_ENTRIES = Integer.highestOneBit(
+            Math.max(2, Integer.getInteger("gitlet.tree.pageEntries", 256)));
+
+    /** Most entries in a page, should no name hash to a boundary. */
+    private static final int MAX_PAGE_ENTRIES = 4 * PAGE_ENTRIES;
+
+    /** Length of a SHA-1 id in bytes. */
+    private static final int SHA_BYTES = Utils.UID_LENGTH / 2;
+
+    /** Returns the files below the tree with TREESHA, by path, and their
+     *  blobs. */
+    static LinkedHashMap<String, String> flatten(String treeSHA) {
+        LinkedHashMap<String, String> result = new LinkedHashMap<>();
+        flatten(treeSHA, "", result);
+        return result;
+    }
+
+    /** Adds the files below the tree with TREESHA to RESULT, prefixing
+     *  their paths with PREFIX. */
+    private static void flatten(String treeSHA, String prefix,
+                                Map<String, String> result) {
+        for (Map.Entry<String, Entry> item : read(treeSHA).entrySet()) {
+            Entry entry = item.getValue();
+            String path = prefix + item.getKey();
+            if (entry._type == ObjectStore.TREE) {
+                flatten(entry._sha, path + "/", result);
+            } else {
+                result.put(path, entry._sha);
+            }
+        }
+    }
+
+    /** Returns the blob of the file with PATH below the tree with TREESHA,
+     *  or null if there is none.  Only the trees along PATH are read. */
+    static String find(String treeSHA, String path) {
+        String[] names = path.split("/");
+        String sha = treeSHA;
+        for (int i = 0; i < names.length; i += 1) {
+            Entry entry = lookup(sha, names[i]);
+            int type = i == names.length - 1 ? ObjectStore.BLOB
+                : ObjectStore.TREE;
+            if (entry == null || entry._type != type) {
+                return null;
+            }
+            sha = entry._sha;
+        }
+        return sha;
+    }
+
+    /** Applies CHANGES, which maps the path of each changed file to its new
+     *  blob or to null if it was removed, to the tree with TREESHA, or to
+     *  an empty tree if TREESHA is null.  Writes the trees that changed
+     *  and returns the id of the new root tree. */
+    static String update(String treeSHA, SortedMap<String, String> changes) {
+        return update(treeSHA, changes, true);
+    }
+
+    /** Applies CHANGES, keyed by path relative to the tree with TREESHA, to
+     *  that tree, or to an empty tree if TREESHA is null.  Returns the id
+     *  of the new tree, or null if it is empty and not the ROOT. */
+    private static String update(String treeSHA,
+                                 SortedMap<String, String> changes,
+                                 boolean root) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        if (treeSHA != null) {
+            byte[] data = readData(treeSHA);
+            int[] pos = { MAGIC.length + 1 };
+            if (data[MAGIC.length] == PAGED) {
+                return updatePages(data, pos, changes, root);
+            }
+            entries = readEntries(data, pos);
+        }
+        apply(entries, changes);
+        if (entries.isEmpty() && !root) {
+            return null;
+        }
+        return write(entries);
+    }
+
+    /** Applies CHANGES to the paged tree whose pages are listed in DATA
+     *  from POS[0] on, as update does.  Only the pages holding names that
+     *  CHANGES touches are read and split again, along with the pages
+     *  after them up to where the new pages line up with the old ones;
+     *  the pages before and after them are kept as stored. */
+    private static String updatePages(byte[] data, int[] pos,
+                                      SortedMap<String, String> changes,
+                                      boolean root) {
+        int count = Varint.read(data, pos, "tree");
+        String[] firsts = new String[count];
+        String[] pageSHAs = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            firsts[i] = Varint.readString(data, pos, "tree");
+            pageSHAs[i] = readSHA(data, pos);
+        }
+
+        TreeMap<Integer, TreeMap<String, String>> pageChanges =
+            new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            int index = Arrays.binarySearch(firsts,
+                    slash < 0 ? path : path.substring(0, slash));
+            if (index < 0) {
+                index = Math.max(0, -index - 2);
+            }
+            pageChanges.computeIfAbsent(index, k -> new TreeMap<>())
+                .put(path, change.getValue());
+        }
+
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            TreeMap<String, String> pageChange = pageChanges.get(i);
+            if (pageChange == null && (pages.isEmpty()
+                    || pages.get(pages.size() - 1).isClosed())) {
+                pages.add(new Page(firsts[i], pageSHAs[i]));
+                continue;
+            }
+            TreeMap<String, Entry> entries = read(pageSHAs[i]);
+            if (pageChange != null) {
+                apply(entries, pageChange);
+            }
+            split(pages, entries);
+        }
+
+        /* The kept pages are counted only as far as needed to tell
+         * whether the tree is still wide enough to be paged. */
+        int size = 0;
+        for (Page page : pages) {
+            size += page._entries == null ? 0 : page._entries.size();
+        }
+        for (int i = 0; i < pages.size() && size <= 2 * PAGE_ENTRIES;
+             i += 1) {
+            if (pages.get(i)._entries == null) {
+                size += pages.get(i).size();
+            }
+        }
+        if (size > 2 * PAGE_ENTRIES) {
+            return write(pages);
+        }
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        for (Page page : pages) {
+            entries.putAll(page.entries());
+        }
+        if (entries.isEmpty() && !root) {
+            return null;
+        }
+        return write(entries);
+    }
+
+    /** Applies CHANGES, keyed by path relative to the tree listing ENTRIES,
+     *  to ENTRIES, writing the subtrees that changed. */
+    private static void apply(TreeMap<String, Entry> entries,
+                              SortedMap<String, String> changes) {
+        TreeMap<String, TreeMap<String, String>> subChanges =
+            new TreeMap<>();
+
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    Entry old = entries.get(path);
+                    if (old != null && old._type == ObjectStore.BLOB) {
+                        entries.remove(path);
+                    }
+                } else {
+                    entries.put(path,
+                            new Entry(ObjectStore.BLOB, change.getValue()));
+                }
+            } else {
+                subChanges.computeIfAbsent(path.substring(0, slash),
+                        k -> new TreeMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+
+        for (Map.Entry<String, TreeMap<String, String>> sub
+                 : subChanges.entrySet()) {
+            String name = sub.getKey();
+            Entry old = entries.get(name);
+            String oldSHA = old != null && old._type == ObjectStore.TREE
+                ? old._sha : null;
+            String newSHA = update(oldSHA, sub.getValue(), false);
+            if (newSHA == null) {
+                if (oldSHA != null) {
+                    entries.remove(name);
+                }
+            } else {
+                entries.put(name, new Entry(ObjectStore.TREE, newSHA));
+            }
+        }
+    }
+
+    /** Writes the tree holding ENTRIES, split into pages if it is large,
+     *  and returns its id. */
+    private static String write(TreeMap<String, Entry> entries) {
+        if (entries.size() <= 2 * PAGE_ENTRIES) {
+            return store(encode(entries));
+        }
+        List<Page> pages = new ArrayList<>();
+        split(pages, entries);
+        return write(pages);
+    }
+
+    /** Writes the tree listing PAGES, and those of PAGES not yet stored,
+     *  and returns its id. */
+    private static String write(List<Page> pages) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(PAGED);
+        Varint.write(out, pages.size());
+        for (Page page : pages) {
+            Varint.writeString(out, page.first());
+            byte[] sha = Pack.toBytes(page.id());
+            out.write(sha, 0, sha.length);
+        }
+        return store(out.toByteArray());
+    }
+
+    /** Adds ENTRIES, whose names all follow those in PAGES, to the end of
+     *  PAGES, starting a new page after each name that hashes to a
+     *  boundary. */
+    private static void split(List<Page> pages, Map<String, Entry> entries) {
+        Page page = pages.isEmpty() ? null : pages.get(pages.size() - 1);
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            if (page == null || page.isClosed()) {
+                page = new Page();
+                pages.add(page);
+            }
+            page._entries.put(item.getKey(), item.getValue());
+        }
+    }
+
+    /** Returns true if a page ends after the entry with NAME. */
+    private static boolean isBoundary(String name) {
+        int hash = name.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        hash ^= hash >>> 16;
+        return (hash & (PAGE_ENTRIES - 1)) == 0;
+    }
+
+    /** Stores the tree with bytes ENCODED, if it is not already stored,
+     *  and returns its id. */
+    private static String store(byte[] encoded) {
+        String treeSHA = Utils.sha1(encoded);
+        if (!ObjectStore.contains(ObjectStore.TREE, treeSHA)) {
+            File treeFile = ObjectStore.newLooseFile(ObjectStore.TREE,
+                    treeSHA);
+            try {
+                Journal.writeObject(treeFile, encoded);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return treeSHA;
+    }
+
+    /** Returns the entries of the tree with TREESHA, by name, reading all
+     *  of its pages. */
+    private static TreeMap<String, Entry> read(String treeSHA) {
+        byte[] data = readData(treeSHA);
+        int[] pos = { MAGIC.length + 1 };
+        if (data[MAGIC.length] == ENTRIES) {
+            return readEntries(data, pos);
+        }
+        TreeMap<String, Entry> result = new TreeMap<>();
+        int count = Varint.read(data, pos, "tree");
+        for (int i = 0; i < count; i += 1) {
+            Varint.readString(data, pos, "tree");
+            result.putAll(read(readSHA(data, pos)));
+        }
+        return result;
+    }
+
+    /** Returns the entry with NAME in the tree with TREESHA, or null if
+     *  there is none, reading only the page that would hold it. */
+    private static Entry lookup(String treeSHA, String name) {
+        byte[] data = readData(treeSHA);
+        int[] pos = { MAGIC.length + 1 };
+        if (data[MAGIC.length] == ENTRIES) {
+            return readEntries(data, pos).get(name);
+        }
+        String page = null;
+        int count = Varint.read(data, pos, "tree");
+        for (int i = 0; i < count; i += 1) {
+            String first = Varint.readString(data, pos, "tree");
+            String pageSHA = readSHA(data, pos);
+            if (first.compareTo(name) > 0) {
+                break;
+            }
+            page = pageSHA;
+        }
+        return page == null ? null : lookup(page, name);
+    }
+
+    /** Returns the stored bytes of the tree with TREESHA, checking their
+     *  magic and version. */
+    private static byte[] readData(String treeSHA) {
+        byte[] data = ObjectStore.read(ObjectStore.TREE, treeSHA);
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (i >= data.length || data[i] != MAGIC[i]) {
+                throw Utils.error("Bad tree %s.", treeSHA);
+            }
+        }
+        if (data.length <= MAGIC.length
+                || (data[MAGIC.length] != ENTRIES
+                    && data[MAGIC.length] != PAGED)) {
+            throw Utils.error("Bad tree %s.", treeSHA);
+        }
+        return data;
+    }
+
+    /** Returns the entries listed in DATA from POS[0] on. */
+    private static TreeMap<String, Entry> readEntries(byte[] data,
+                                                      int[] pos) {
+        int count = Varint.read(data, pos, "tree");
+        TreeMap<String, Entry> result = new TreeMap<>();
+        for (int i = 0; i < count; i += 1) {
+            int type = data[pos[0]];
+            pos[0] += 1;
+            String name = Varint.readString(data, pos, "tree");
+            result.put(name, new Entry(type, readSHA(data, pos)));
+        }
+        return result;
+    }
+
+    /** Returns the bytes of the tree listing ENTRIES. */
+    private static byte[] encode(TreeMap<String, Entry> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(ENTRIES);
+        Varint.write(out, entries.size());
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            Entry entry = item.getValue();
+            out.write(entry._type);
+            Varint.writeString(out, item.getKey());
+            byte[] sha = Pack.toBytes(entry._sha);
+            out.write(sha, 0, sha.length);
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the raw SHA-1 id in DATA at POS[0] as hexadecimal,
+     *  advancing POS[0] past it. */
+    private static String readSHA(byte[] data, int[] pos) {
+        byte[] sha = new byte[SHA_BYTES];
+        System.arraycopy(data, pos[0], sha, 0, SHA_BYTES);
+        pos[0] += SHA_BYTES;
+        return Pack.toHex(sha);
+    }
+
+    /** One page of a paged tree, either kept as stored or holding entries
+     *  yet to be stored. */
+    private static class Page {
+
+        /** Name of my first entry, if I am kept as stored. */
+        private final String _first;
+
+        /** My id, if I am kept as stored. */
+        private final String _sha;
+
+        /** My entries, or null if I am kept as stored. */
+        private final TreeMap<String, Entry> _entries;
+
+        /** The stored page with FIRST as its first name and SHA as id. */
+        Page(String first, String sha) {
+            _first = first;
+            _sha = sha;
+            _entries = null;
+        }
+
+        /** A new, empty page. */
+        Page() {
+            _first = null;
+            _sha = null;
+            _entries = new TreeMap<>();
+        }
+
+        /** Returns the name of my first entry. */
+        String first() {
+            return _entries == null ? _first : _entries.firstKey();
+        }
+
+        /** Returns my id, storing me first if I am new. */
+        String id() {
+            return _entries == null ? _sha : store(encode(_entries));
+        }
+
+        /** Returns true if no more entries belong in me.  A stored page
+         *  ended where the entries after it start a new page. */
+        boolean isClosed() {
+            return _entries == null || isBoundary(_entries.lastKey())
+                || _entries.size() >= MAX_PAGE_ENTRIES;
+        }
+
+        /** Returns my number of entries. */
+        int size() {
+            if (_entries != null) {
+                return _entries.size();
+            }
+            return Varint.read(readData(_sha), new int[] { MAGIC.length + 1 },
+                    "tree");
+        }
+
+        /** Returns my entries. */
+        TreeMap<String, Entry> entries() {
+            return _entries == null ? read(_sha) : _entries;
+        }
+    }
+
+    /** One entry of a tree. */
+    private static class Entry {
+
+        /** Type of the object I name, BLOB or TREE. */
+        private final int _type;
+
+        /** Id of the object I name. */
+        private final String _sha;
+
+        /** An entry naming the object of TYPE with SHA. */
+        Entry(int type, String sha) {
+            _type = type;
+            _sha = sha;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Varints and strings for the binary formats of Gitlet, the tiny stupid
+ *  ass version-control system.
+ *
+ *  A varint holds a non-negative int in groups of 7 bits, lowest first,
+ *  each in a byte whose top bit is set if another follows.  A string is
+ *  the length of its UTF-8 bytes as a varint, followed by those bytes.
+ *  Readers read DATA at POS[0] and advance POS[0] past what they read;
+ *  they name WHAT they were reading when the data is truncated or
+ *  malformed.
+ *  @author Song Bai
+ */
+class Varint {
+
+    /** Writes the non-negative integer N to OUT as a varint. */
+    static void write(ByteArrayOutputStream out, int n) {
+        while ((n & ~0x7f) != 0) {
+            out.write((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.write(n);
+    }
+
+    /** Returns the varint in DATA at POS[0], advancing POS[0] past it. */
+    static int read(byte[] data, int[] pos, String what) {
+        int result = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            if (pos[0] >= data.length) {
+                throw Utils.error("Truncated %s.", what);
+            }
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw Utils.error("Malformed %s.", what);
+    }
+
+    /** Writes the UTF-8 bytes of S to OUT, prefixed by their length. */
+    static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        write(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /** Returns the length-prefixed string in DATA at POS[0], advancing
+     *  POS[0] past it. */
+    static String readString(byte[] data, int[] pos, String what) {
+        int length = read(data, pos, what);
+        if (length < 0 || length > data.length - pos[0]) {
+            throw Utils.error("Truncated %s.", what);
+        }
+        String result =
+            new String(data, pos[0], length, StandardCharsets.UTF_8);
+        pos[0] += length;
+        return result;
+    }
+}
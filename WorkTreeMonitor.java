@@ -0,0 +1,294 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/** Working tree monitor for Gitlet, the tiny stupid ass version-control
+ *  system.
+ *
+ *  If gitlet.watch is true, a daemon watches every directory of the
+ *  working tree for changes.  It then keeps the list of working files
+ *  itself instead of walking the tree, and remembers the hash of each
+ *  working file found since it was last changed, so status, add and the
+ *  checks made before checkout and reset only stat and hash the files
+ *  changed since the last command.  A file is forgotten, that is, marked
+ *  dirty, as soon as an event names it.
+ *
+ *  Events arrive a moment after the change they report, so before each
+ *  command the monitor writes .gitlet/watch-barrier, whose folder is also
+ *  watched, and waits for the event for that write.  Once it has come,
+ *  every event for an earlier change has come too, and the monitor takes
+ *  in all the events waiting.  If it does not come in time, or events were
+ *  lost, the tree is walked again and every file is dirty.
+ *  @author Song Bai
+ */
+class WorkTreeMonitor {
+
+    /** .gitlet folder. */
+    static final File GITLET = new File(".gitlet");
+
+    /** File written to mark how far events have been taken in. */
+    static final File BARRIER = Utils.join(GITLET, "watch-barrier");
+
+    /** True if the daemon watches the working tree. */
+    static final boolean ENABLED = Boolean.getBoolean("gitlet.watch");
+
+    /** Longest time to wait for the barrier's event in ms. */
+    private static final long BARRIER_TIMEOUT = 1000;
+
+    /** The watch service, or null if the tree is not being watched. */
+    private static WatchService _watcher;
+
+    /** The key of the .gitlet folder. */
+    private static WatchKey _gitletKey;
+
+    /** The working directory, absolute. */
+    private static Path _root;
+
+    /** Paths of the working files. */
+    private static TreeSet<String> _files;
+
+    /** Hashes of the working files not changed since they were last
+     *  hashed, by path. */
+    private static HashMap<String, String> _clean;
+
+    /** Number of files hashed again because they were dirty. */
+    private static long _dirtyHashes;
+
+    /** Number of hashes answered without looking at the file. */
+    private static long _cleanHashes;
+
+    /** Starts watching the working tree, if ENABLED. */
+    static synchronized void start() throws IOException {
+        if (!ENABLED || _watcher != null) {
+            return;
+        }
+        _root = WorkingTree.CWD.toPath().toAbsolutePath().normalize();
+        _watcher = _root.getFileSystem().newWatchService();
+        _gitletKey = GITLET.toPath().toAbsolutePath().register(_watcher,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        rescan();
+    }
+
+    /** Stops watching the working tree. */
+    static synchronized void stop() throws IOException {
+        if (_watcher != null) {
+            _watcher.close();
+            _watcher = null;
+            _files = null;
+            _clean = null;
+            BARRIER.delete();
+        }
+    }
+
+    /** Takes in every change made to the working tree so far. */
+    static synchronized void update() throws IOException {
+        if (_watcher == null) {
+            return;
+        }
+        Utils.writeContents(BARRIER, String.valueOf(System.nanoTime()));
+        long deadline = System.currentTimeMillis() + BARRIER_TIMEOUT;
+        boolean reached = false;
+        while (true) {
+            WatchKey key;
+            if (reached) {
+                key = _watcher.poll();
+                if (key == null) {
+                    return;
+                }
+            } else {
+                key = pollUntil(deadline);
+                if (key == null) {
+                    rescan();
+                    return;
+                }
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (key == _gitletKey) {
+                    reached |= BARRIER.getName()
+                        .equals(String.valueOf(event.context()));
+                } else if (!take((Path) key.watchable(), event)) {
+                    key.reset();
+                    rescan();
+                    return;
+                }
+            }
+            key.reset();
+        }
+    }
+
+    /** Returns the next signalled key, waiting for one until DEADLINE, or
+     *  null if none comes. */
+    private static WatchKey pollUntil(long deadline) {
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) {
+            return null;
+        }
+        try {
+            return _watcher.poll(wait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /** Returns true if the working tree is being watched. */
+    static synchronized boolean isWatching() {
+        return _watcher != null;
+    }
+
+    /** Returns the paths of the working files in the directory with path
+     *  DIR, or in the whole working tree if DIR is empty, in lexicographic
+     *  order.  The tree must be being watched. */
+    static synchronized List<String> files(String dir) {
+        if (dir.isEmpty()) {
+            return new ArrayList<>(_files);
+        }
+        String prefix = dir + "/";
+        return new ArrayList<>(
+                _files.subSet(prefix, prefix + Character.MAX_VALUE));
+    }
+
+    /** Returns true if the working file with FILENAME exists.  The tree
+     *  must be being watched. */
+    static synchronized boolean contains(String fileName) {
+        return _files.contains(fileName);
+    }
+
+    /** Returns the hash of the working file with FILENAME if it has not
+     *  changed since it was last hashed, else null. */
+    static synchronized String sha(String fileName) {
+        if (_watcher == null) {
+            return null;
+        }
+        String result = _clean.get(fileName);
+        if (result == null) {
+            _dirtyHashes += 1;
+        } else {
+            _cleanHashes += 1;
+        }
+        return result;
+    }
+
+    /** Records that the working file with FILENAME hashes to SHA. */
+    static synchronized void record(String fileName, String sha) {
+        if (_watcher != null && _files.contains(fileName)) {
+            _clean.put(fileName, sha);
+        }
+    }
+
+    /** Notes that this process just wrote or deleted the working file
+     *  with FILENAME. */
+    static synchronized void changed(String fileName) {
+        if (_watcher == null) {
+            return;
+        }
+        _clean.remove(fileName);
+        if (new File(WorkingTree.CWD, fileName).isFile()) {
+            _files.add(fileName);
+        } else {
+            _files.remove(fileName);
+        }
+    }
+
+    /** Returns a one-line summary of monitor activity. */
+    static synchronized String stats() {
+        if (_watcher == null) {
+            return "work tree monitor: off";
+        }
+        return String.format("work tree monitor: %d files, %d clean, "
+                + "%d hashes answered, %d dirty", _files.size(),
+                _clean.size(), _cleanHashes, _dirtyHashes);
+    }
+
+    /** Takes in EVENT from the directory DIR.  Returns false if events
+     *  were lost. */
+    private static boolean take(Path dir, WatchEvent<?> event)
+            throws IOException {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            return false;
+        }
+        Path path = dir.resolve((Path) event.context());
+        String name = toName(path);
+        if (name == null) {
+            return true;
+        }
+        _clean.remove(name);
+        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+            _files.remove(name);
+            String prefix = name + "/";
+            _files.subSet(prefix, prefix + Character.MAX_VALUE).clear();
+            _clean.keySet().removeIf(fileName -> fileName.startsWith(prefix));
+        } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                register(path);
+            }
+        } else if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+            _files.add(name);
+        } else {
+            _files.remove(name);
+        }
+        return true;
+    }
+
+    /** Walks the working tree again, watching every directory, and marks
+     *  every file dirty. */
+    private static void rescan() throws IOException {
+        _files = new TreeSet<>();
+        _clean = new HashMap<>();
+        register(_root);
+    }
+
+    /** Watches the directory DIR and those in it, adding the files in
+     *  them to the working files. */
+    private static void register(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path,
+                    BasicFileAttributes attrs) throws IOException {
+                Path name = path.getFileName();
+                if (name != null
+                        && name.toString().equals(WorkingTree.GITLET_NAME)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                path.register(_watcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path,
+                    BasicFileAttributes attrs) {
+                String name = toName(path);
+                if (attrs.isRegularFile() && name != null) {
+                    _files.add(name);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Returns the working path of the absolute PATH, or null if it is not
+     *  in the working tree. */
+    private static String toName(Path path) {
+        return WorkingTree.normalize(_root.relativize(path).toString());
+    }
+}
@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** The working directory of Gitlet, the tiny stupid ass version-control
+ *  system.
+ *
+ *  Working files are named by their path relative to the working
+ *  directory, with "/" between the names of the directories they are in,
+ *  like "src/Main.java".  The .gitlet folder is never part of the working
+ *  tree.  Writing a file creates the directories it needs, and deleting
+ *  one removes the directories it leaves empty.
+ *  @author Song Bai
+ */
+class WorkingTree {
+
+    /** Current working directory. */
+    static final File CWD = new File(System.getProperty("user.dir"));
+
+    /** Name of the .gitlet folder. */
+    static final String GITLET_NAME = ".gitlet";
+
+    /** Returns the paths of all working files, in lexicographic order. */
+    static List<String> files() {
+        return files("");
+    }
+
+    /** Returns the paths of the working files in the directory with path
+     *  DIR, or in the whole working tree if DIR is empty, in lexicographic
+     *  order. */
+    static List<String> files(String dir) {
+        if (WorkTreeMonitor.isWatching()) {
+            return WorkTreeMonitor.files(dir);
+        }
+        Path root = CWD.toPath();
+        Path start = dir.isEmpty() ? root : root.resolve(dir);
+        List<String> result = new ArrayList<>();
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path path,
+                        BasicFileAttributes attrs) {
+                    Path name = path.getFileName();
+                    if (name != null && name.toString().equals(GITLET_NAME)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path path,
+                        BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        result.add(toName(root.relativize(path)));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns true if the working file with FILENAME exists. */
+    static boolean exists(String fileName) {
+        if (WorkTreeMonitor.isWatching()) {
+            return WorkTreeMonitor.contains(fileName);
+        }
+        return new File(CWD, fileName).isFile();
+    }
+
+    /** Returns the working path naming PATH, which may be relative to the
+     *  working directory or absolute, or null if PATH lies outside the
+     *  working tree.  The working directory itself is named "". */
+    static String normalize(String path) {
+        Path root = CWD.toPath().toAbsolutePath().normalize();
+        Path full = root.resolve(path).normalize();
+        if (!full.startsWith(root)) {
+            return null;
+        }
+        Path relative = root.relativize(full);
+        for (Path name : relative) {
+            if (name.toString().equals(GITLET_NAME)) {
+                return null;
+            }
+        }
+        return toName(relative);
+    }
+
+    /** Writes the concatenation of CONTENTS, byte arrays and strings, to
+     *  the working file with FILENAME, creating the directories it is in if
+     *  needed. */
+    static void write(String fileName, Object... contents) {
+        File file = new File(CWD, fileName);
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, contents);
+        WorkTreeMonitor.changed(fileName);
+    }
+
+    /** Deletes the working file with FILENAME, if it exists, along with any
+     *  directories it leaves empty.  Returns true if it was deleted. */
+    static boolean delete(String fileName) {
+        File file = new File(CWD, fileName);
+        if (file.isDirectory() || !file.delete()) {
+            return false;
+        }
+        WorkTreeMonitor.changed(fileName);
+        File dir = file.getParentFile();
+        while (!dir.equals(CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+        return true;
+    }
+
+    /** Returns the working path naming the relative PATH. */
+    private static String toName(Path path) {
+        List<String> names = new ArrayList<>();
+        for (Path name : path) {
+            names.add(name.toString());
+        }
+        return String.join("/", names);
+    }
+}